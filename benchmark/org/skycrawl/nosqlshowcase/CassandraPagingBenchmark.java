@@ -0,0 +1,207 @@
+package org.skycrawl.nosqlshowcase;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.skycrawl.nosqlshowcase.server.cassandra.CassandraConnection;
+import org.skycrawl.nosqlshowcase.server.root.common.model.WebsiteToCertDataModel;
+import org.skycrawl.nosqlshowcase.server.root.common.sample.DefaultCertObject;
+import org.skycrawl.nosqlshowcase.server.root.common.sample.SampleWebsite;
+import org.skycrawl.nosqlshowcase.server.root.ui.venndiagram.VennOverlap;
+import org.skycrawl.nosqlshowcase.server.root.ui.venndiagram.VennSet;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+
+/**
+ * <p>Compares peak heap usage of scanning the domains of a single large TLD (one partition
+ * of many pages) with and without paging. The mini-app itself only reads counters, the scan
+ * is how the migrations read domains.</p>
+ *
+ * <p>Not a unit test - it needs a running Cassandra and its results are timings and heap
+ * sizes to be read, not asserted. Run the main method with the "benchmark.cassandra.host"
+ * system property set. Optionally, "benchmark.cassandra.port" and "benchmark.cassandra.websites"
+ * may be set as well.</p>
+ *
+ * <p>Websites are stored under a TLD of their own in the showcase keyspace and deleted
+ * afterwards. Run with a small heap (e.g. -Xmx256m) to make the difference obvious.</p>
+ */
+public class CassandraPagingBenchmark
+{
+	private static final String HOST = System.getProperty("benchmark.cassandra.host");
+	private static final int PORT = Integer.getInteger("benchmark.cassandra.port", 9042);
+	private static final int WEBSITES = Integer.getInteger("benchmark.cassandra.websites", 200000);
+	private static final int ROOT_CAS = 20;
+	private static final int PAGE_SIZE = 1000;
+
+	private final CassandraConnection connection;
+	private final String tld;
+
+	public static void main(String[] args) throws Exception
+	{
+		if(HOST == null)
+		{
+			System.err.println("Set the 'benchmark.cassandra.host' system property to the Cassandra to run against.");
+			System.exit(1);
+		}
+
+		CassandraPagingBenchmark benchmark = new CassandraPagingBenchmark();
+		try
+		{
+			benchmark.setUp();
+			benchmark.runPeakHeap();
+		}
+		finally
+		{
+			benchmark.tearDown();
+		}
+	}
+
+	public CassandraPagingBenchmark()
+	{
+		this.connection = new CassandraConnection();
+		this.tld = "bench" + System.currentTimeMillis();
+	}
+
+	private void setUp() throws Exception
+	{
+		connection.connect(HOST, PORT);
+		connection.init();
+
+		List<SampleWebsite> batch = new ArrayList<SampleWebsite>();
+		for(int i = 0; i < WEBSITES; i++)
+		{
+			batch.add(new SampleWebsite(new URL("http://" + getDomain(i)), Collections.singletonList(getRootCA(i % ROOT_CAS))));
+			if(batch.size() == 10000)
+			{
+				connection.getDataController().storeAll(batch);
+				batch.clear();
+			}
+		}
+		connection.getDataController().storeAll(batch);
+	}
+
+	private void tearDown()
+	{
+		if(connection.getConnection() != null)
+		{
+			connection.getConnection().execute("DELETE FROM table_domains WHERE tld=?;", tld);
+			connection.getConnection().execute("DELETE FROM tld_ca_counts WHERE tld=?;", tld);
+			connection.getConnection().execute("DELETE FROM tld_counts WHERE tld=?;", tld);
+			for(int i = 0; i < ROOT_CAS; i++)
+			{
+				connection.getConnection().execute("DELETE FROM domains_by_ca WHERE tld=? AND caKey=?;", tld, getRootCA(i).getFingerprint());
+			}
+			List<ResultSetFuture> deletes = new ArrayList<ResultSetFuture>();
+			for(int i = 0; i < WEBSITES; i++)
+			{
+				deletes.add(connection.getConnection().executeAsync("DELETE FROM domain_by_name WHERE domain=? IF EXISTS;", getDomain(i)));
+				if(deletes.size() == PAGE_SIZE)
+				{
+					waitFor(deletes);
+				}
+			}
+			waitFor(deletes);
+			connection.close();
+		}
+	}
+
+	private void runPeakHeap() throws Exception
+	{
+		// the mini-app must see all the websites, or the scans below read something else
+		WebsiteToCertDataModel model = connection.getDataController().getSetDomainAndIntersections(Collections.singleton(tld));
+		List<VennSet> sets = new ArrayList<VennSet>();
+		model.fillDataForTLD(tld, sets, new ArrayList<VennOverlap>());
+		check(sets.get(0).getSize() == WEBSITES, "Not all websites were counted.");
+		check(sets.size() == ROOT_CAS + 1, "Not all root CAs were read.");
+
+		long unpagedPeak = measurePeakHeap(Integer.MAX_VALUE); // disables paging
+		long pagedPeak = measurePeakHeap(PAGE_SIZE);
+
+		System.out.println(String.format("Scanning %d websites: peak heap %d kB without paging, %d kB with pages of %d rows.",
+				WEBSITES, unpagedPeak / 1024, pagedPeak / 1024, PAGE_SIZE));
+	}
+
+	private String getDomain(int website)
+	{
+		return "www" + website + ".example." + tld;
+	}
+
+	private static DefaultCertObject getRootCA(int index)
+	{
+		DefaultCertObject result = new DefaultCertObject();
+		result.setVersion(3);
+		result.setOrganizationName("Benchmark CA " + index);
+		return result;
+	}
+
+	/**
+	 * Scans the domains of the TLD (without keeping them) while sampling heap usage in
+	 * another thread.
+	 *
+	 * @return peak heap usage above the level before reading
+	 */
+	private long measurePeakHeap(int fetchSize) throws Exception
+	{
+		final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		System.gc();
+		final long baseline = memory.getHeapMemoryUsage().getUsed();
+		final long[] peak = new long[] { baseline };
+		Thread sampler = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				while(!Thread.currentThread().isInterrupted())
+				{
+					peak[0] = Math.max(peak[0], memory.getHeapMemoryUsage().getUsed());
+				}
+			}
+		});
+		sampler.start();
+
+		int websites = 0;
+		try
+		{
+			Statement scan = new SimpleStatement("SELECT domain, caKey FROM table_domains WHERE tld=?;", tld).setFetchSize(fetchSize);
+			ResultSet rows = connection.getConnection().execute(scan);
+			while(rows.one() != null)
+			{
+				websites++;
+			}
+		}
+		finally
+		{
+			sampler.interrupt();
+			sampler.join();
+		}
+
+		// and make sure all websites were read, or the numbers mean nothing
+		check(websites == WEBSITES, "Not all websites were read.");
+
+		return peak[0] - baseline;
+	}
+
+	private static void waitFor(List<ResultSetFuture> futures)
+	{
+		for(ResultSetFuture future : futures)
+		{
+			future.getUninterruptibly();
+		}
+		futures.clear();
+	}
+
+	private static void check(boolean condition, String message)
+	{
+		if(!condition)
+		{
+			throw new IllegalStateException(message);
+		}
+	}
+}
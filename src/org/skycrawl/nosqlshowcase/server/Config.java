@@ -1,14 +1,19 @@
 package org.skycrawl.nosqlshowcase.server;
 
+import java.io.File;
 import java.io.UnsupportedEncodingException;
+import java.util.Enumeration;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.servlet.ServletContext;
 
 import org.skycrawl.nosqlshowcase.server.root.common.db.AbstractDatabaseConnection;
 import org.skycrawl.nosqlshowcase.server.root.common.db.DatabaseHandle;
 import org.skycrawl.nosqlshowcase.server.root.common.db.IDatabaseInfo;
+import org.skycrawl.nosqlshowcase.server.root.common.db.PoolSettings;
 import org.skycrawl.nosqlshowcase.server.root.ui.MasterUI;
 
 import com.vaadin.ui.UI;
@@ -32,6 +37,25 @@ public class Config
 	 */
 	private static ServletContext WEB_APP_CONTEXT = null;
 	private static Map<String, DatabaseHandle<?>> SERVLET_PATH_TO_DATABASE_INFO = new LinkedHashMap<String, DatabaseHandle<?>>();
+	
+	/*
+	 * Long-running tasks (e.g. sample data loads) must not run in request threads
+	 * because the session lock would be held for the whole time.
+	 */
+	private static final int BACKGROUND_THREADS = 4;
+	private static ExecutorService BACKGROUND_EXECUTOR = null;
+	
+	private static PoolSettings POOL_SETTINGS = null;
+	
+	/*
+	 * Large results are read in pages of this many rows (or documents).
+	 */
+	private static final int DEFAULT_FETCH_SIZE = 1000;
+	
+	/*
+	 * Context parameters with this prefix are passed to the embedded Neo4j database.
+	 */
+	private static final String NEO4J_SETTING_PREFIX = "neo4j.";
 
 	// ----------------------------------------------------------------------------------
 	// PUBLIC INTERFACE
@@ -95,6 +119,169 @@ public class Config
 		return SERVLET_PATH_TO_DATABASE_INFO;
 	}
 	
+	/**
+	 * Gets the executor for long-running tasks that should not block the user interface.
+	 * At most {@link #BACKGROUND_THREADS} tasks run at a time, the rest is queued.
+	 */
+	public static synchronized ExecutorService getBackgroundExecutor()
+	{
+		if(BACKGROUND_EXECUTOR == null)
+		{
+			BACKGROUND_EXECUTOR = Executors.newFixedThreadPool(BACKGROUND_THREADS);
+		}
+		return BACKGROUND_EXECUTOR;
+	}
+	
+	/**
+	 * Interrupts all running background tasks and discards the queued ones.
+	 */
+	public static synchronized void shutdownBackgroundExecutor()
+	{
+		if(BACKGROUND_EXECUTOR != null)
+		{
+			BACKGROUND_EXECUTOR.shutdownNow();
+			BACKGROUND_EXECUTOR = null;
+		}
+	}
+	
+	/**
+	 * Gets the default connection pool settings for all databases. Any of the following
+	 * context parameters overrides the respective default:
+	 * <ul>
+	 * <li> poolMaxConnections,
+	 * <li> poolMinIdleConnections,
+	 * <li> poolConnectTimeoutMillis,
+	 * <li> poolSocketTimeoutMillis,
+	 * <li> poolMaxWaitMillis,
+	 * <li> poolIdleTimeoutMillis,
+	 * <li> poolEvictionIntervalMillis.
+	 * </ul>
+	 */
+	public static synchronized PoolSettings getPoolSettings()
+	{
+		if(POOL_SETTINGS == null)
+		{
+			PoolSettings result = new PoolSettings();
+			if(WEB_APP_CONTEXT != null)
+			{
+				result.setMaxConnections(getIntContextParam("poolMaxConnections", result.getMaxConnections()));
+				result.setMinIdleConnections(getIntContextParam("poolMinIdleConnections", result.getMinIdleConnections()));
+				result.setConnectTimeoutMillis(getIntContextParam("poolConnectTimeoutMillis", result.getConnectTimeoutMillis()));
+				result.setSocketTimeoutMillis(getIntContextParam("poolSocketTimeoutMillis", result.getSocketTimeoutMillis()));
+				result.setMaxWaitMillis(getIntContextParam("poolMaxWaitMillis", result.getMaxWaitMillis()));
+				result.setIdleTimeoutMillis(getIntContextParam("poolIdleTimeoutMillis", result.getIdleTimeoutMillis()));
+				result.setEvictionIntervalMillis(getIntContextParam("poolEvictionIntervalMillis", result.getEvictionIntervalMillis()));
+			}
+			POOL_SETTINGS = result;
+		}
+		return POOL_SETTINGS;
+	}
+	
+	/**
+	 * Gets the number of rows (or documents) fetched in a single round trip when reading
+	 * large results. Bounds the memory needed to read them. May be overridden with the
+	 * "fetchSize" context parameter.
+	 */
+	public static int getFetchSize()
+	{
+		int result = WEB_APP_CONTEXT != null ? getIntContextParam("fetchSize", DEFAULT_FETCH_SIZE) : DEFAULT_FETCH_SIZE;
+		if(result < 1)
+		{
+			throw new IllegalStateException("Fetch size must be positive.");
+		}
+		return result;
+	}
+	
+	/**
+	 * Whether an existing Cassandra keyspace whose replication factor exceeds the number of
+	 * nodes may have it lowered on connect, set by the "cassandraLowerReplicationFactor"
+	 * context parameter. Off by default: it is a schema change that can't be undone by
+	 * raising it back and needs "nodetool cleanup" afterwards.
+	 */
+	public static boolean getCassandraLowerReplicationFactor()
+	{
+		return WEB_APP_CONTEXT != null ? getBooleanContextParam("cassandraLowerReplicationFactor", false) : false;
+	}
+	
+	/**
+	 * Whether MongoDB documents of domains stored more than once may be removed on connect
+	 * (all but the first of each domain), so that the unique domain index can be built. Set
+	 * by the "mongoRemoveDuplicateDomains" context parameter, off by default.
+	 */
+	public static boolean getMongoRemoveDuplicateDomains()
+	{
+		return WEB_APP_CONTEXT != null ? getBooleanContextParam("mongoRemoveDuplicateDomains", false) : false;
+	}
+	
+	/**
+	 * Whether MongoDB indexes that differ from their declaration may be dropped and built
+	 * again on connect, set by the "mongoRebuildIndexes" context parameter. Off by default:
+	 * rebuilding a large index takes long and the collection is slower meanwhile.
+	 */
+	public static boolean getMongoRebuildIndexes()
+	{
+		return WEB_APP_CONTEXT != null ? getBooleanContextParam("mongoRebuildIndexes", false) : false;
+	}
+	
+	/**
+	 * Gets the number of Riak replicas that must acknowledge a write, set by the
+	 * "riakWriteQuorum" context parameter.
+	 * 
+	 * @return the number or null to use the bucket's default
+	 */
+	public static Integer getRiakWriteQuorum()
+	{
+		String value = WEB_APP_CONTEXT != null ? Config.<String>getContextParam("riakWriteQuorum") : null;
+		return value == null ? null : Integer.valueOf(value.trim());
+	}
+	
+	/**
+	 * Gets the directory of the embedded Neo4j store, set by the "neo4jStorePath" context
+	 * parameter. Defaults to "nosqlshowcase/neo4j" in the user's home directory.
+	 */
+	public static String getNeo4jStorePath()
+	{
+		String value = WEB_APP_CONTEXT != null ? Config.<String>getContextParam("neo4jStorePath") : null;
+		return value != null ? value.trim() : new File(new File(System.getProperty("user.home"), "nosqlshowcase"), "neo4j").getPath();
+	}
+	
+	/**
+	 * Gets the maximum number of websites stored by Neo4j in a single transaction when
+	 * storing many of them, set by the "neo4jStoreBatchSize" context parameter.
+	 * 
+	 * @return the number or null to use the data controller's default
+	 */
+	public static Integer getNeo4jStoreBatchSize()
+	{
+		String value = WEB_APP_CONTEXT != null ? Config.<String>getContextParam("neo4jStoreBatchSize") : null;
+		return value == null ? null : Integer.valueOf(value.trim());
+	}
+	
+	/**
+	 * Gets settings of the embedded Neo4j database, e.g. sizes of memory mapped store files.
+	 * Every context parameter named "neo4j.&lt;setting&gt;" sets the respective Neo4j setting,
+	 * those that are not set are left to Neo4j.
+	 * 
+	 * @return values by setting name (without the prefix)
+	 */
+	public static Map<String, String> getNeo4jSettings()
+	{
+		Map<String, String> result = new LinkedHashMap<String, String>();
+		if(WEB_APP_CONTEXT != null)
+		{
+			Enumeration<String> names = WEB_APP_CONTEXT.getInitParameterNames();
+			while(names.hasMoreElements())
+			{
+				String name = names.nextElement();
+				if(name.startsWith(NEO4J_SETTING_PREFIX))
+				{
+					result.put(name.substring(NEO4J_SETTING_PREFIX.length()), Config.<String>getContextParam(name).trim());
+				}
+			}
+		}
+		return result;
+	}
+	
 	public static String getDefaultServletPath()
 	{
 		return "index";
@@ -108,9 +295,21 @@ public class Config
 	// ----------------------------------------------------------------------------------
 	// PRIVATE INTERFACE
 
-	@SuppressWarnings({ "unchecked", "unused" })
+	@SuppressWarnings("unchecked")
 	private static <T extends Object> T getContextParam(String key)
 	{
 		return (T) WEB_APP_CONTEXT.getInitParameter(key);
 	}
+	
+	private static int getIntContextParam(String key, int defaultValue)
+	{
+		String value = getContextParam(key);
+		return value == null ? defaultValue : Integer.parseInt(value.trim());
+	}
+	
+	private static boolean getBooleanContextParam(String key, boolean defaultValue)
+	{
+		String value = getContextParam(key);
+		return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+	}
 }
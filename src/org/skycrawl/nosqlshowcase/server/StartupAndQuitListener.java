@@ -58,6 +58,7 @@ public class StartupAndQuitListener implements ServletContextListener
 	@Override
 	public void contextDestroyed(ServletContextEvent arg0)
 	{
+		Config.shutdownBackgroundExecutor();
 	}
 	
 	// ---------------------------------------------------------------
@@ -2,10 +2,17 @@ package org.skycrawl.nosqlshowcase.server.cassandra;
 
 import org.skycrawl.nosqlshowcase.server.cassandra.controller.CassandraDataController;
 import org.skycrawl.nosqlshowcase.server.root.common.db.AbstractDatabaseConnection;
+import org.skycrawl.nosqlshowcase.server.root.common.db.PoolSettings;
+import org.skycrawl.nosqlshowcase.server.root.common.db.PoolUtilization;
 
 import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.HostDistance;
 import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.PoolingOptions;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SocketOptions;
+import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
 
 public class CassandraConnection extends AbstractDatabaseConnection<Session, CassandraDataController>
 {
@@ -14,7 +21,37 @@ public class CassandraConnection extends AbstractDatabaseConnection<Session, Cas
 	@Override
 	protected Session doConnect(String hostname, int port) throws Exception
 	{
-		return Cluster.builder().addContactPoint(hostname).build().connect();
+		/*
+		 * Sessions are thread-safe and multiplex many concurrent requests over each connection.
+		 * Connections above the core count are closed by the driver once they are no longer
+		 * needed - it has no setting for how soon.
+		 */
+		PoolSettings settings = getPoolSettings();
+		int coreConnections = Math.min(Math.max(settings.getMinIdleConnections(), 1), settings.getMaxConnections());
+		PoolingOptions poolingOptions = new PoolingOptions();
+		for(HostDistance distance : new HostDistance[] { HostDistance.LOCAL, HostDistance.REMOTE })
+		{
+			// core count must never exceed max count, not even temporarily
+			poolingOptions.setCoreConnectionsPerHost(distance, 1);
+			poolingOptions.setMaxConnectionsPerHost(distance, settings.getMaxConnections());
+			poolingOptions.setCoreConnectionsPerHost(distance, coreConnections);
+		}
+		SocketOptions socketOptions = new SocketOptions()
+				.setConnectTimeoutMillis(settings.getConnectTimeoutMillis())
+				.setReadTimeoutMillis(settings.getSocketTimeoutMillis());
+		
+		/*
+		 * Bound statements carry the partition key, which lets the driver send them straight
+		 * to a replica instead of a coordinator that would have to forward them.
+		 */
+		return Cluster.builder()
+				.addContactPoint(hostname)
+				.withPort(port)
+				.withPoolingOptions(poolingOptions)
+				.withSocketOptions(socketOptions)
+				.withLoadBalancingPolicy(new TokenAwarePolicy(new DCAwareRoundRobinPolicy()))
+				.build()
+				.connect();
 	}
 	
 	@Override
@@ -29,6 +66,23 @@ public class CassandraConnection extends AbstractDatabaseConnection<Session, Cas
 		return getConnection().getCluster().getMetadata().getAllHosts().iterator().next().getCassandraVersion().toString();
 	}
 	
+	/**
+	 * The driver only counts open connections, not the ones in use.
+	 */
+	@Override
+	public PoolUtilization getPoolUtilization()
+	{
+		Cluster cluster = getConnection().getCluster();
+		int hosts = cluster.getMetadata().getAllHosts().size();
+		int maxPerHost = cluster.getConfiguration().getPoolingOptions().getMaxConnectionsPerHost(HostDistance.LOCAL);
+		return new PoolUtilization(
+				cluster.getMetrics().getOpenConnections().getValue(),
+				PoolUtilization.UNKNOWN,
+				hosts * maxPerHost,
+				PoolUtilization.UNKNOWN
+		);
+	}
+	
 	@Override
 	protected boolean isAlive()
 	{
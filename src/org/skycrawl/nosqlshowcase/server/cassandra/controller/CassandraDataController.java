@@ -1,21 +1,53 @@
 package org.skycrawl.nosqlshowcase.server.cassandra.controller;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
 
 import org.apache.commons.lang.StringUtils;
+import org.skycrawl.nosqlshowcase.server.Config;
+import org.skycrawl.nosqlshowcase.server.Logger;
 import org.skycrawl.nosqlshowcase.server.root.common.db.AbstractDataController;
+import org.skycrawl.nosqlshowcase.server.root.common.db.BulkStoreResult;
+import org.skycrawl.nosqlshowcase.server.root.common.db.CertificateCache;
 import org.skycrawl.nosqlshowcase.server.root.common.exceptions.DuplicateItemException;
+import org.skycrawl.nosqlshowcase.server.root.common.model.CertFingerprint;
 import org.skycrawl.nosqlshowcase.server.root.common.model.WebsiteToCertDataModel;
 import org.skycrawl.nosqlshowcase.server.root.common.sample.DefaultCertObject;
+import org.skycrawl.nosqlshowcase.server.root.common.sample.SampleWebsite;
 import org.skycrawl.nosqlshowcase.server.root.util.CustomOrderSet;
+import org.skycrawl.nosqlshowcase.server.root.util.Tuple;
 
+import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.KeyspaceMetadata;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.google.common.base.Function;
+import com.google.common.base.Throwables;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 public class CassandraDataController extends AbstractDataController<Session>
 {
@@ -23,16 +55,51 @@ public class CassandraDataController extends AbstractDataController<Session>
 	 * Various static fields.
 	 */
 	private static final String NAME_KEYSPACE = "cassandra_showcase";
+	private static final int REPLICATION_FACTOR = 3;
 	private static final String NAME_TABLE_CA = "table_cas";
 	private static final String NAME_TABLE_DOMAIN = "table_domains";
+	private static final String NAME_TABLE_DOMAIN_BY_NAME = "domain_by_name";
+	private static final String NAME_TABLE_DOMAIN_BY_CA = "domains_by_ca";
+	private static final String NAME_TABLE_CA_COUNTS = "tld_ca_counts";
+	private static final String NAME_TABLE_TLD_COUNTS = "tld_counts";
+	private static final String NAME_TABLE_DIRTY_COUNTS = "dirty_counts";
+	
+	/**
+	 * Name of the column telling whether a conditional statement was applied.
+	 */
+	private static final String COLUMN_APPLIED = "[applied]";
+	
+	/**
+	 * Maximum number of websites processed in a single wave of asynchronous requests
+	 * by {@link #doStoreAll(Collection)}.
+	 */
+	private static final int STORE_BATCH_SIZE = 500;
+	
+	/**
+	 * Maximum number of requests in flight when reading data.
+	 */
+	private static final int MAX_CONCURRENT_READS = 64;
 	
 	/*
 	 * Prepared statements.
 	 */
 	private PreparedStatement insertDomainStatement;
 	private PreparedStatement insertCAStatement;
-	private PreparedStatement existsDomainStatement;
+	private PreparedStatement claimDomainStatement;
+	private PreparedStatement releaseDomainStatement;
 	private PreparedStatement getCertificateStatement;
+	private PreparedStatement insertDomainByCAStatement;
+	private PreparedStatement selectDomainsByCAStatement;
+	private PreparedStatement incrementCACountStatement;
+	private PreparedStatement incrementTLDCountStatement;
+	private PreparedStatement selectCACountsStatement;
+	private PreparedStatement selectCACountStatement;
+	private PreparedStatement markCountDirtyStatement;
+	
+	/*
+	 * Number of rows fetched per page when reading.
+	 */
+	private int fetchSize;
 	
 	public CassandraDataController(Session connection)
 	{
@@ -40,13 +107,67 @@ public class CassandraDataController extends AbstractDataController<Session>
 		
 		this.insertDomainStatement = null;
 		this.insertCAStatement = null;
+		this.fetchSize = Config.getFetchSize();
+	}
+	
+	public int getFetchSize()
+	{
+		return fetchSize;
+	}
+	
+	/**
+	 * Results are read page by page and processed as they come, so only a few pages of
+	 * this many rows are in memory at a time (per partition being read).
+	 */
+	public void setFetchSize(int fetchSize)
+	{
+		if(fetchSize < 1)
+		{
+			throw new IllegalArgumentException("Fetch size must be positive.");
+		}
+		this.fetchSize = fetchSize;
+	}
+	
+	/**
+	 * Conditional inserts need a quorum of replicas to be up so there can't be more replicas
+	 * than nodes. Creates the keyspace with a replication factor of at most the number of
+	 * known hosts. An existing keyspace with more replicas is only altered if allowed by
+	 * {@link Config#getCassandraLowerReplicationFactor()}, otherwise it is left alone.
+	 */
+	private void createKeyspace()
+	{
+		int replicationFactor = Math.min(REPLICATION_FACTOR, getConnection().getCluster().getMetadata().getAllHosts().size());
+		KeyspaceMetadata keyspace = getConnection().getCluster().getMetadata().getKeyspace(NAME_KEYSPACE);
+		if(keyspace == null)
+		{
+			getConnection().execute(String.format("CREATE KEYSPACE IF NOT EXISTS %s WITH replication = {'class': 'SimpleStrategy', 'replication_factor' : %d};", NAME_KEYSPACE, replicationFactor));
+		}
+		else
+		{
+			String currentReplicationFactor = keyspace.getReplication().get("replication_factor"); // only defined for SimpleStrategy
+			if((currentReplicationFactor != null) && (Integer.parseInt(currentReplicationFactor) > replicationFactor))
+			{
+				if(Config.getCassandraLowerReplicationFactor())
+				{
+					Logger.log(Level.WARNING, String.format("Lowering replication factor of keyspace '%s' from %s to %d, the number of nodes. Run 'nodetool cleanup' on every node.",
+							NAME_KEYSPACE, currentReplicationFactor, replicationFactor));
+					getConnection().execute(String.format("ALTER KEYSPACE %s WITH replication = {'class': 'SimpleStrategy', 'replication_factor' : %d};", NAME_KEYSPACE, replicationFactor));
+				}
+				else
+				{
+					Logger.log(Level.WARNING, String.format("Keyspace '%s' has a replication factor of %s but there are only %d nodes, so conditional inserts " +
+							"will fail. Lower it or set the 'cassandraLowerReplicationFactor' context parameter.",
+							NAME_KEYSPACE, currentReplicationFactor, replicationFactor));
+				}
+			}
+		}
 	}
 	
 	@Override
 	public void init() throws Exception
 	{
 		// first setup database
-		getConnection().execute(String.format("CREATE KEYSPACE IF NOT EXISTS %s WITH replication = {'class': 'SimpleStrategy', 'replication_factor' : 3};", NAME_KEYSPACE));
+		createKeyspace();
 		getConnection().execute(String.format("USE %s;", NAME_KEYSPACE));
 		getConnection().execute(String.format("CREATE TABLE IF NOT EXISTS %s (" +
 				"id text PRIMARY KEY," + // TODO: probably better to use UUID
@@ -68,131 +189,739 @@ public class CassandraDataController extends AbstractDataController<Session>
 			    
 			    NAME_TABLE_DOMAIN
 		));
+		getConnection().execute(String.format("CREATE TABLE IF NOT EXISTS %s (" + // domains are unique, this is how it's enforced
+				"domain text PRIMARY KEY," +
+				"tld text" +
+			    ");",
+			    
+			    NAME_TABLE_DOMAIN_BY_NAME
+		));
+		getConnection().execute(String.format("CREATE TABLE IF NOT EXISTS %s (" + // to recompute the counters, see repairCounts()
+				"tld text," +
+				"caKey text," +
+				"domain text," +
+			    "PRIMARY KEY ((tld, caKey), domain)" +
+			    ");",
+			    
+			    NAME_TABLE_DOMAIN_BY_CA
+		));
+		getConnection().execute(String.format("CREATE TABLE IF NOT EXISTS %s (" + // number of websites per TLD and root CA
+				"tld text," +
+				"caKey text," +
+				"websites counter," +
+			    "PRIMARY KEY (tld, caKey)" +
+			    ");",
+			    
+			    NAME_TABLE_CA_COUNTS
+		));
+		getConnection().execute(String.format("CREATE TABLE IF NOT EXISTS %s (" + // number of websites per TLD
+				"tld text PRIMARY KEY," +
+				"websites counter" +
+			    ");",
+			    
+			    NAME_TABLE_TLD_COUNTS
+		));
+		getConnection().execute(String.format("CREATE TABLE IF NOT EXISTS %s (" + // counters that may be wrong, see repairCounts()
+				"tld text," +
+				"caKey text," +
+			    "PRIMARY KEY (tld, caKey)" +
+			    ");",
+			    
+			    NAME_TABLE_DIRTY_COUNTS
+		));
 		
 		// and then prepare queries
 		insertCAStatement = getConnection().prepare(String.format("INSERT INTO %s (id, commonName, organizationName, organizationUnit, pubKeyAlg, version) VALUES (?, ?, ?, ?, ?, ?);", NAME_TABLE_CA));
 		insertDomainStatement = getConnection().prepare(String.format("INSERT INTO %s (domain, tld, caKey) VALUES (?, ?, ?);", NAME_TABLE_DOMAIN));
-		existsDomainStatement = getConnection().prepare(String.format("SELECT * FROM %s WHERE domain=? ALLOW FILTERING;", NAME_TABLE_DOMAIN));
+		claimDomainStatement = getConnection().prepare(String.format("INSERT INTO %s (domain, tld) VALUES (?, ?) IF NOT EXISTS;", NAME_TABLE_DOMAIN_BY_NAME));
+		releaseDomainStatement = getConnection().prepare(String.format("DELETE FROM %s WHERE domain=? IF EXISTS;", NAME_TABLE_DOMAIN_BY_NAME));
 		getCertificateStatement = getConnection().prepare(String.format("SELECT * FROM %s WHERE id=?;", NAME_TABLE_CA));
+		insertDomainByCAStatement = getConnection().prepare(String.format("INSERT INTO %s (tld, caKey, domain) VALUES (?, ?, ?);", NAME_TABLE_DOMAIN_BY_CA));
+		selectDomainsByCAStatement = getConnection().prepare(String.format("SELECT domain FROM %s WHERE tld=? AND caKey=?;", NAME_TABLE_DOMAIN_BY_CA));
+		incrementCACountStatement = getConnection().prepare(String.format("UPDATE %s SET websites = websites + ? WHERE tld=? AND caKey=?;", NAME_TABLE_CA_COUNTS));
+		incrementTLDCountStatement = getConnection().prepare(String.format("UPDATE %s SET websites = websites + ? WHERE tld=?;", NAME_TABLE_TLD_COUNTS));
+		selectCACountsStatement = getConnection().prepare(String.format("SELECT caKey, websites FROM %s WHERE tld=?;", NAME_TABLE_CA_COUNTS));
+		selectCACountStatement = getConnection().prepare(String.format("SELECT websites FROM %s WHERE tld=? AND caKey=?;", NAME_TABLE_CA_COUNTS));
+		markCountDirtyStatement = getConnection().prepare(String.format("INSERT INTO %s (tld, caKey) VALUES (?, ?);", NAME_TABLE_DIRTY_COUNTS));
+		
+		// and finally, bring older data up to date
+		migrateLegacyCAKeys();
+		fillDomainLookupTable();
+		fillCounterTables();
+		repairCounts();
+	}
+	
+	/**
+	 * Counters of websites whose increments failed (see {@link #markCountsDirty(Collection)})
+	 * are recomputed from {@link #NAME_TABLE_DOMAIN_BY_CA}. The counter is corrected by the
+	 * difference since counters can not be set. Websites of the same TLD and root CA that
+	 * are stored while their counter is repaired may make it off by their number again.
+	 */
+	private void repairCounts()
+	{
+		for(Row dirty : scan(String.format("SELECT tld, caKey FROM %s;", NAME_TABLE_DIRTY_COUNTS)))
+		{
+			String tld = dirty.getString("tld");
+			String rootCAKey = dirty.getString("caKey");
+			ResultSet domains = getConnection().execute(new BoundStatement(selectDomainsByCAStatement)
+					.bind(tld, rootCAKey)
+					.setFetchSize(fetchSize));
+			long websites = 0;
+			while(domains.one() != null)
+			{
+				websites++;
+			}
+			Row counter = getConnection().execute(new BoundStatement(selectCACountStatement).bind(tld, rootCAKey)).one();
+			int difference = Ints.checkedCast(websites - (counter == null ? 0 : counter.getLong("websites")));
+			if(difference != 0)
+			{
+				Logger.log(Level.WARNING, String.format("Correcting the number of websites from TLD '%s' signed by root CA '%s' by %d.", tld, rootCAKey, difference));
+				Map<Tuple<String, String>, Integer> counts = Collections.singletonMap(new Tuple<String, String>(tld, rootCAKey), difference);
+				getConnection().execute(bindIncrementCounts(counts).get(0));
+			}
+			getConnection().execute(String.format("DELETE FROM %s WHERE tld=? AND caKey=?;", NAME_TABLE_DIRTY_COUNTS), tld, rootCAKey);
+		}
+	}
+	
+	/**
+	 * To be called when websites were stored but their counters could not be incremented.
+	 * Their counters are repaired by {@link #repairCounts()}, the next time the mini-app is
+	 * rebuilt (or the database initialized).
+	 * 
+	 * @param overlaps TLDs and root CA keys whose counters may be wrong
+	 */
+	private void markCountsDirty(Collection<Tuple<String, String>> overlaps)
+	{
+		for(Tuple<String, String> overlap : overlaps)
+		{
+			try
+			{
+				getConnection().execute(new BoundStatement(markCountDirtyStatement).bind(overlap.getValue1(), overlap.getValue2()));
+			}
+			catch (RuntimeException e)
+			{
+				Logger.logThrowable(String.format("Number of websites from TLD '%s' signed by root CA '%s' may be wrong and won't be repaired: ",
+						overlap.getValue1(), overlap.getValue2()), e);
+			}
+		}
+	}
+	
+	/**
+	 * Domains stored before {@link #NAME_TABLE_CA_COUNTS} was introduced are counted and
+	 * copied into {@link #NAME_TABLE_DOMAIN_BY_CA}. Only done when there are no counters
+	 * while the domain table is not empty.
+	 */
+	private void fillCounterTables()
+	{
+		if(getConnection().execute(String.format("SELECT tld FROM %s LIMIT 1;", NAME_TABLE_TLD_COUNTS)).isExhausted())
+		{
+			Map<Tuple<String, String>, Integer> counts = new HashMap<Tuple<String, String>, Integer>(); // TLD and root CA key to number of websites
+			for(Row row : scan(String.format("SELECT tld, domain, caKey FROM %s;", NAME_TABLE_DOMAIN)))
+			{
+				getConnection().execute(bindInsertDomainByCA(row.getString("domain"), row.getString("tld"), row.getString("caKey")));
+				Tuple<String, String> overlap = new Tuple<String, String>(row.getString("tld"), row.getString("caKey"));
+				Integer websites = counts.get(overlap);
+				counts.put(overlap, websites == null ? 1 : websites + 1);
+			}
+			for(BatchStatement batch : bindIncrementCounts(counts))
+			{
+				getConnection().execute(batch);
+			}
+		}
+	}
+	
+	/**
+	 * Domains stored before {@link #NAME_TABLE_DOMAIN_BY_NAME} was introduced are copied
+	 * into it. Only done when it is empty while the domain table is not.
+	 */
+	private void fillDomainLookupTable()
+	{
+		if(getConnection().execute(String.format("SELECT domain FROM %s LIMIT 1;", NAME_TABLE_DOMAIN_BY_NAME)).isExhausted())
+		{
+			for(Row row : scan(String.format("SELECT tld, domain FROM %s;", NAME_TABLE_DOMAIN)))
+			{
+				getConnection().execute(new BoundStatement(claimDomainStatement).bind(row.getString("domain"), row.getString("tld")));
+			}
+		}
+	}
+	
+	/**
+	 * Root CAs used to be keyed by their 32-bit hash code which is prone to collisions. Such
+	 * rows are re-inserted under their {@link CertFingerprint fingerprint}, domains are linked
+	 * to the new rows and the legacy rows deleted. The CA table is small so checking it on
+	 * every start is cheap; domains are only scanned when there is something to migrate.
+	 */
+	private void migrateLegacyCAKeys()
+	{
+		Map<String, DefaultCertObject> legacyCAs = new HashMap<String, DefaultCertObject>();
+		for(Row row : scan(String.format("SELECT * FROM %s;", NAME_TABLE_CA)))
+		{
+			if(!CertFingerprint.isFingerprint(row.getString("id")))
+			{
+				legacyCAs.put(row.getString("id"), rowToCert(row));
+			}
+		}
+		
+		if(!legacyCAs.isEmpty())
+		{
+			for(DefaultCertObject rootCA : legacyCAs.values())
+			{
+				getConnection().execute(bindInsertCA(rootCA.getFingerprint(), rootCA));
+			}
+			for(Row row : scan(String.format("SELECT tld, domain, caKey FROM %s;", NAME_TABLE_DOMAIN)))
+			{
+				DefaultCertObject rootCA = legacyCAs.get(row.getString("caKey"));
+				if(rootCA != null)
+				{
+					getConnection().execute(bindInsertDomain(row.getString("domain"), row.getString("tld"), rootCA.getFingerprint()));
+				}
+			}
+			for(String legacyKey : legacyCAs.keySet())
+			{
+				getConnection().execute(String.format("DELETE FROM %s WHERE id='%s';", NAME_TABLE_CA, legacyKey));
+			}
+		}
 	}
 	
 	@Override
 	public Set<String> getTLDs() throws Exception
 	{
 		Set<String> result = new CustomOrderSet<String>();
-		for(Row row : getConnection().execute(String.format("SELECT DISTINCT tld FROM %s;", NAME_TABLE_DOMAIN)).all())
+		for(Row row : scan(String.format("SELECT tld FROM %s;", NAME_TABLE_TLD_COUNTS)))
 		{
 			result.add(row.getString("tld"));
 		}
 		return result;
 	}
 
+	/**
+	 * Only the counters maintained by {@link #store(URL, List)} are read - one row per TLD
+	 * and root CA, no matter how many domains there are. Counter partitions of all TLDs are
+	 * read in parallel, with at most {@link #MAX_CONCURRENT_READS} requests in flight. Results
+	 * are processed in the order they arrive and each distinct root CA that is not in
+	 * {@link CertificateCache} is fetched (also asynchronously) as soon as it is first seen.
+	 * Statements are prepared and bound so the driver routes each of them directly to a
+	 * replica owning the partition. Partitions are read in pages of {@link #getFetchSize()}
+	 * rows and the next page is requested before the current one is processed.
+	 */
 	@Override
 	public WebsiteToCertDataModel getSetDomainAndIntersections(Set<String> tlds) throws Exception
 	{
+		repairCounts();
+		
+		final Semaphore inFlight = new Semaphore(MAX_CONCURRENT_READS);
+		final BlockingQueue<String> scannedTLDs = new LinkedBlockingQueue<String>();
+		Map<String, ResultSetFuture> tldScans = new HashMap<String, ResultSetFuture>();
+		Map<String, ListenableFuture<DefaultCertObject>> rootCAFetches = new HashMap<String, ListenableFuture<DefaultCertObject>>();
+		Map<Tuple<String, String>, Integer> unresolved = new HashMap<Tuple<String, String>, Integer>(); // TLD and root CA key to number of websites
+		
 		WebsiteToCertDataModel result = new WebsiteToCertDataModel();
-		for(String tld : tlds)
+		try
 		{
-			result.registerSet(tld);
-			for(Row row : getConnection().execute(String.format("SELECT * FROM %s WHERE tld='%s';", NAME_TABLE_DOMAIN, tld)).all())
+			// issue all the TLD scans
+			for(final String tld : tlds)
+			{
+				result.registerSet(tld);
+				Statement statement = new BoundStatement(selectCACountsStatement).bind(tld).setFetchSize(fetchSize);
+				ResultSetFuture scan = executeAsync(statement, inFlight);
+				scan.addListener(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						scannedTLDs.add(tld);
+					}
+				}, MoreExecutors.sameThreadExecutor());
+				tldScans.put(tld, scan);
+			}
+			
+			// process them as they complete
+			for(int i = 0; i < tldScans.size(); i++)
 			{
-				String domain = row.getString("domain");
-				String rootCAKey = row.getString("caKey");
-				DefaultCertObject rootCA = getCertificate(rootCAKey);
+				String tld = scannedTLDs.take();
+				PrefetchingRows rows = new PrefetchingRows(tldScans.get(tld).getUninterruptibly(), fetchSize);
+				for(Row row = rows.next(); row != null; row = rows.next())
+				{
+					String rootCAKey = row.getString("caKey");
+					int websites = Ints.checkedCast(row.getLong("websites"));
+					if(websites < 1)
+					{
+						continue; // would only happen if an update was lost
+					}
 					
-				// register the certificate
+					DefaultCertObject rootCA = CertificateCache.getShared().getIfPresent(rootCAKey, DefaultCertObject.class);
+					if(rootCA != null)
+					{
+						result.registerSet(rootCA);
+						result.registerOverlap(tld, rootCA, websites);
+					}
+					else
+					{
+						if(!rootCAFetches.containsKey(rootCAKey))
+						{
+							rootCAFetches.put(rootCAKey, fetchCertificateAsync(rootCAKey, inFlight));
+						}
+						unresolved.put(new Tuple<String, String>(tld, rootCAKey), websites);
+					}
+				}
+			}
+			
+			// and finally, wait for the root CAs
+			for(Entry<Tuple<String, String>, Integer> overlap : unresolved.entrySet())
+			{
+				DefaultCertObject rootCA = Uninterruptibles.getUninterruptibly(rootCAFetches.get(overlap.getKey().getValue2()));
 				result.registerSet(rootCA);
-				
-				// and register the current found overlap
-				result.registerOverlap(domain, tld, rootCA);
+				result.registerOverlap(overlap.getKey().getValue1(), rootCA, overlap.getValue());
+			}
+			return result;
+		}
+		catch (ExecutionException e)
+		{
+			Throwables.propagateIfPossible(e.getCause(), Exception.class);
+			throw new IllegalStateException(e.getCause()); // no cause, or a Throwable subclass of its own
+		}
+		finally
+		{
+			// don't leave anything running if something went wrong
+			for(ResultSetFuture scan : tldScans.values())
+			{
+				scan.cancel(true);
+			}
+			for(ListenableFuture<DefaultCertObject> fetch : rootCAFetches.values())
+			{
+				fetch.cancel(true);
 			}
 		}
-		return result;
 	}
 
 	@Override
-	public boolean store(URL website, List<DefaultCertObject> certificateChain) throws Exception
+	protected boolean doStore(URL website, List<DefaultCertObject> certificateChain) throws Exception
 	{
 		String domain = website.getHost();
-		if(existsDomain(domain)) // TODO: perhaps use "IF NOT EXISTS" and batch processing?
+		String tld = StringUtils.substringAfterLast(domain, ".");
+		if(!isApplied(getConnection().execute(bindClaimDomain(domain, tld))))
 		{
 			throw new DuplicateItemException();
 		}
 		else
 		{
 			DefaultCertObject rootCA = certificateChain.get(certificateChain.size() - 1);
-			String rootCAKey = String.valueOf(rootCA.hashCode());
-			if(!existsCA(rootCAKey)) // TODO: perhaps use "IF NOT EXISTS" and batch processing?
-			{
-				BoundStatement boundStatement = new BoundStatement(insertCAStatement);
-				getConnection().execute(boundStatement.bind(
-						rootCAKey,
-						rootCA.getCommonName(),
-						rootCA.getOrganizationName(),
-						rootCA.getOrganizationUnit(),
-						rootCA.getPubKeyAlg(),
-						rootCA.getVersion()
-				));
+			String rootCAKey = rootCA.getFingerprint();
+			try
+			{
+				// root CAs are keyed by content so writing one again changes nothing
+				getConnection().execute(bindInsertCA(rootCAKey, rootCA));
+				getConnection().execute(bindInsertDomain(domain, tld, rootCAKey));
+				getConnection().execute(bindInsertDomainByCA(domain, tld, rootCAKey));
+			}
+			catch (RuntimeException e)
+			{
+				// give the domain back so that it can be stored again later
+				getConnection().execute(new BoundStatement(releaseDomainStatement).bind(domain));
+				throw e;
 			}
 			
-			String tld = StringUtils.substringAfterLast(domain, ".");
-			BoundStatement boundStatement = new BoundStatement(insertDomainStatement);
-			getConnection().execute(boundStatement.bind(
-					domain,
-					tld,
-					rootCAKey
-			));
+			// counters are not idempotent so they are only updated once the website is stored
+			Map<Tuple<String, String>, Integer> counts = Collections.singletonMap(new Tuple<String, String>(tld, rootCAKey), 1);
+			try
+			{
+				getConnection().execute(bindIncrementCounts(counts).get(0));
+			}
+			catch (RuntimeException e)
+			{
+				// the website is stored nonetheless
+				Logger.logThrowable("Could not count a stored website: ", e);
+				markCountsDirty(counts.keySet());
+			}
 			return true;
 		}
 	}
 	
+	/**
+	 * Stores the websites in batches of {@link #STORE_BATCH_SIZE}. Each batch takes two waves of
+	 * asynchronous requests: conditional inserts into {@link #NAME_TABLE_DOMAIN_BY_NAME} first,
+	 * to claim the domains, and then the writes. Domains are written in unlogged batches, one
+	 * per partition, root CAs individually (each is a partition of its own). Counters are only
+	 * updated when all of that succeeds, in a single batch per TLD. A batch that fails does
+	 * not affect the others.
+	 */
+	@Override
+	protected BulkStoreResult doStoreAll(Collection<SampleWebsite> websites)
+	{
+		BulkStoreResult result = new BulkStoreResult();
+		List<SampleWebsite> batch = new ArrayList<SampleWebsite>();
+		for(SampleWebsite website : websites)
+		{
+			batch.add(website);
+			if(batch.size() == STORE_BATCH_SIZE)
+			{
+				storeBatch(batch, result);
+				batch.clear();
+			}
+		}
+		if(!batch.isEmpty())
+		{
+			storeBatch(batch, result);
+		}
+		return result;
+	}
+	
+	/**
+	 * Websites of the batch that can not be stored are reported as failed, the others are
+	 * stored nonetheless. Domains claimed for websites that could not be written are given
+	 * back so that they can be stored again later.
+	 */
+	private void storeBatch(List<SampleWebsite> batch, BulkStoreResult result)
+	{
+		List<SampleWebsite> duplicates = new ArrayList<SampleWebsite>();
+		List<SampleWebsite> failed = new ArrayList<SampleWebsite>();
+		List<SampleWebsite> claimed = new ArrayList<SampleWebsite>(batch.size());
+		Map<Tuple<String, String>, Integer> counts = new LinkedHashMap<Tuple<String, String>, Integer>(); // TLD and root CA key to number of websites
+		try
+		{
+			// first wave: claim all domains at once
+			List<ResultSetFuture> domainClaims = new ArrayList<ResultSetFuture>(batch.size());
+			Set<String> domainsInBatch = new HashSet<String>();
+			for(SampleWebsite website : batch)
+			{
+				if(domainsInBatch.add(website.getDomain()))
+				{
+					domainClaims.add(getConnection().executeAsync(bindClaimDomain(website.getDomain(), website.getTLD())));
+				}
+				else
+				{
+					domainClaims.add(null);
+				}
+			}
+			for(int i = 0; i < batch.size(); i++)
+			{
+				SampleWebsite website = batch.get(i);
+				try
+				{
+					if((domainClaims.get(i) == null) || !isApplied(domainClaims.get(i).getUninterruptibly()))
+					{
+						duplicates.add(website);
+					}
+					else
+					{
+						claimed.add(website);
+					}
+				}
+				catch (RuntimeException e)
+				{
+					// the claim may or may not have been applied so it can't be given back
+					Logger.logThrowable(String.format("Could not claim domain '%s': ", website.getDomain()), e);
+					failed.add(website);
+				}
+			}
+			
+			// second wave: all writes at once
+			List<ResultSetFuture> writes = new ArrayList<ResultSetFuture>();
+			Map<String, BatchStatement> tldToBatch = new LinkedHashMap<String, BatchStatement>();
+			Map<Tuple<String, String>, BatchStatement> overlapToBatch = new LinkedHashMap<Tuple<String, String>, BatchStatement>();
+			Set<String> rootCAKeys = new HashSet<String>();
+			for(SampleWebsite website : claimed)
+			{
+				String rootCAKey = website.getRootCA().getFingerprint();
+				if(rootCAKeys.add(rootCAKey))
+				{
+					writes.add(getConnection().executeAsync(bindInsertCA(rootCAKey, website.getRootCA())));
+				}
+				BatchStatement tldBatch = tldToBatch.get(website.getTLD());
+				if(tldBatch == null)
+				{
+					tldBatch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+					tldToBatch.put(website.getTLD(), tldBatch);
+				}
+				tldBatch.add(bindInsertDomain(website.getDomain(), website.getTLD(), rootCAKey));
+				
+				Tuple<String, String> overlap = new Tuple<String, String>(website.getTLD(), rootCAKey);
+				BatchStatement overlapBatch = overlapToBatch.get(overlap);
+				if(overlapBatch == null)
+				{
+					overlapBatch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+					overlapToBatch.put(overlap, overlapBatch);
+					counts.put(overlap, 0);
+				}
+				overlapBatch.add(bindInsertDomainByCA(website.getDomain(), website.getTLD(), rootCAKey));
+				counts.put(overlap, counts.get(overlap) + 1);
+			}
+			for(BatchStatement tldBatch : tldToBatch.values())
+			{
+				writes.add(getConnection().executeAsync(tldBatch));
+			}
+			for(BatchStatement overlapBatch : overlapToBatch.values())
+			{
+				writes.add(getConnection().executeAsync(overlapBatch));
+			}
+			
+			// and wait for the writes to finish
+			for(ResultSetFuture write : writes)
+			{
+				write.getUninterruptibly();
+			}
+		}
+		catch (RuntimeException e)
+		{
+			Logger.logThrowable("Could not store a batch of websites: ", e);
+			releaseDomains(claimed);
+			failed.addAll(claimed);
+			claimed.clear();
+			counts.clear();
+		}
+		
+		// counters are not idempotent so they are only updated once the websites are stored
+		List<ResultSetFuture> increments = new ArrayList<ResultSetFuture>();
+		for(BatchStatement countBatch : bindIncrementCounts(counts))
+		{
+			increments.add(getConnection().executeAsync(countBatch));
+		}
+		boolean countsFailed = false;
+		for(ResultSetFuture increment : increments)
+		{
+			try
+			{
+				increment.getUninterruptibly();
+			}
+			catch (RuntimeException e)
+			{
+				// the websites are stored nonetheless
+				Logger.logThrowable("Could not count stored websites: ", e);
+				countsFailed = true;
+			}
+		}
+		if(countsFailed)
+		{
+			markCountsDirty(counts.keySet()); // repairing a correct counter changes nothing
+		}
+		result.getDuplicates().addAll(duplicates);
+		result.getFailed().addAll(failed);
+		result.getStored().addAll(claimed);
+	}
+	
+	/**
+	 * Gives the claimed domains back so that they can be stored again later and waits
+	 * until that is done. Domains that can not be given back are reported as duplicates
+	 * by later attempts to store them.
+	 */
+	private void releaseDomains(List<SampleWebsite> websites)
+	{
+		List<ResultSetFuture> releases = new ArrayList<ResultSetFuture>(websites.size());
+		for(SampleWebsite website : websites)
+		{
+			releases.add(getConnection().executeAsync(new BoundStatement(releaseDomainStatement).bind(website.getDomain())));
+		}
+		for(int i = 0; i < releases.size(); i++)
+		{
+			try
+			{
+				releases.get(i).getUninterruptibly();
+			}
+			catch (RuntimeException e)
+			{
+				Logger.logThrowable(String.format("Could not give back domain '%s': ", websites.get(i).getDomain()), e);
+			}
+		}
+	}
+	
 	//----------------------------------------------------------------
 	// QUERIES AND STATEMENTS, WRAPPED IN METHODS
 	
-	private boolean existsDomain(String domain)
+	private BoundStatement bindInsertCA(String rootCAKey, DefaultCertObject rootCA)
 	{
-		BoundStatement boundStatement = new BoundStatement(existsDomainStatement);
-		return !getConnection().execute(boundStatement.bind(domain)).isExhausted();
+		return new BoundStatement(insertCAStatement).bind(
+				rootCAKey,
+				rootCA.getCommonName(),
+				rootCA.getOrganizationName(),
+				rootCA.getOrganizationUnit(),
+				rootCA.getPubKeyAlg(),
+				rootCA.getVersion()
+		);
 	}
-
-	private boolean existsCA(String rootCAKey)
+	
+	private BoundStatement bindInsertDomainByCA(String domain, String tld, String rootCAKey)
 	{
-		BoundStatement boundStatement = new BoundStatement(getCertificateStatement);
-		return !getConnection().execute(boundStatement.bind(rootCAKey)).isExhausted();
+		return new BoundStatement(insertDomainByCAStatement).bind(
+				tld,
+				rootCAKey,
+				domain
+		);
 	}
 	
-	private DefaultCertObject getCertificate(String rootCAKey)
+	/**
+	 * @param counts TLD and root CA key mapped to the number of websites to add
+	 * @return a counter batch for each TLD, including its total
+	 */
+	private List<BatchStatement> bindIncrementCounts(Map<Tuple<String, String>, Integer> counts)
 	{
-		BoundStatement boundStatement = new BoundStatement(getCertificateStatement);
-		ResultSet query = getConnection().execute(boundStatement.bind(rootCAKey));
-		if(query.isExhausted())
+		Map<String, BatchStatement> tldToBatch = new LinkedHashMap<String, BatchStatement>();
+		Map<String, Long> tldToTotal = new HashMap<String, Long>();
+		for(Entry<Tuple<String, String>, Integer> entry : counts.entrySet())
 		{
-			throw new IllegalStateException("No row (CA) found for key: " + rootCAKey);
+			String tld = entry.getKey().getValue1();
+			BatchStatement batch = tldToBatch.get(tld);
+			if(batch == null)
+			{
+				batch = new BatchStatement(BatchStatement.Type.COUNTER);
+				tldToBatch.put(tld, batch);
+				tldToTotal.put(tld, 0L);
+			}
+			batch.add(new BoundStatement(incrementCACountStatement).bind((long) entry.getValue(), tld, entry.getKey().getValue2()));
+			tldToTotal.put(tld, tldToTotal.get(tld) + entry.getValue());
 		}
-		else
+		for(Entry<String, BatchStatement> entry : tldToBatch.entrySet())
 		{
-			DefaultCertObject result = new DefaultCertObject();
-			Row row = query.one();
-			result.setCommonName(row.getString("commonName"));
-			result.setOrganizationName(row.getString("organizationName"));
-			result.setOrganizationUnit(row.getString("organizationUnit"));
-			result.setPubKeyAlg(row.getString("pubKeyAlg"));
-			result.setVersion(row.getInt("version"));
-			return result;
+			entry.getValue().add(new BoundStatement(incrementTLDCountStatement).bind(tldToTotal.get(entry.getKey()), entry.getKey()));
 		}
+		return new ArrayList<BatchStatement>(tldToBatch.values());
+	}
+	
+	private BoundStatement bindInsertDomain(String domain, String tld, String rootCAKey)
+	{
+		return new BoundStatement(insertDomainStatement).bind(
+				domain,
+				tld,
+				rootCAKey
+		);
+	}
+	
+	/**
+	 * Conditional insert into {@link #NAME_TABLE_DOMAIN_BY_NAME}, only applied if the domain
+	 * is not stored yet. See {@link #isApplied(ResultSet)}.
+	 */
+	private BoundStatement bindClaimDomain(String domain, String tld)
+	{
+		return new BoundStatement(claimDomainStatement).bind(
+				domain,
+				tld
+		);
+	}
+	
+	private static boolean isApplied(ResultSet conditionalResult)
+	{
+		return conditionalResult.one().getBool(COLUMN_APPLIED);
+	}
+	
+	/**
+	 * Executes the given full scan in pages of {@link #getFetchSize()} rows.
+	 */
+	private ResultSet scan(String query)
+	{
+		return getConnection().execute(new SimpleStatement(query).setFetchSize(fetchSize));
+	}
+	
+	/**
+	 * Fetches the root CA and puts it into {@link CertificateCache}.
+	 */
+	private ListenableFuture<DefaultCertObject> fetchCertificateAsync(final String rootCAKey, Semaphore inFlight) throws InterruptedException
+	{
+		ResultSetFuture query = executeAsync(new BoundStatement(getCertificateStatement).bind(rootCAKey), inFlight);
+		return Futures.transform(query, new Function<ResultSet, DefaultCertObject>()
+		{
+			@Override
+			public DefaultCertObject apply(ResultSet input)
+			{
+				Row row = input.one();
+				if(row == null)
+				{
+					throw new IllegalStateException("No row (CA) found for key: " + rootCAKey);
+				}
+				DefaultCertObject result = rowToCert(row);
+				CertificateCache.getShared().put(rootCAKey, DefaultCertObject.class, result);
+				return result;
+			}
+		});
+	}
+	
+	/**
+	 * Executes the statement asynchronously once one of the given permits is available.
+	 * The permit is given back when the statement completes.
+	 */
+	private ResultSetFuture executeAsync(Statement statement, final Semaphore inFlight) throws InterruptedException
+	{
+		inFlight.acquire();
+		ResultSetFuture result = getConnection().executeAsync(statement);
+		result.addListener(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				inFlight.release();
+			}
+		}, MoreExecutors.sameThreadExecutor());
+		return result;
+	}
+	
+	private static DefaultCertObject rowToCert(Row row)
+	{
+		DefaultCertObject result = new DefaultCertObject();
+		result.setCommonName(row.getString("commonName"));
+		result.setOrganizationName(row.getString("organizationName"));
+		result.setOrganizationUnit(row.getString("organizationUnit"));
+		result.setPubKeyAlg(row.getString("pubKeyAlg"));
+		result.setVersion(row.getInt("version"));
+		return result;
 	}
 
 	//----------------------------------------------------------------
 	// INHERITED MASSIVE MANIPULATION ROUTINES
 
 	@Override
-	public void clearDatabase()
+	protected void doClearDatabase()
 	{
 		// debug:
 		// getConnection().execute(String.format("DROP KEYSPACE %s;", NAME_KEYSPACE));
 		
 		// production:
 		getConnection().execute(String.format("TRUNCATE %s;", NAME_TABLE_DOMAIN));
+		getConnection().execute(String.format("TRUNCATE %s;", NAME_TABLE_DOMAIN_BY_NAME));
+		getConnection().execute(String.format("TRUNCATE %s;", NAME_TABLE_DOMAIN_BY_CA));
+		getConnection().execute(String.format("TRUNCATE %s;", NAME_TABLE_CA_COUNTS));
+		getConnection().execute(String.format("TRUNCATE %s;", NAME_TABLE_TLD_COUNTS));
+		getConnection().execute(String.format("TRUNCATE %s;", NAME_TABLE_DIRTY_COUNTS));
 		getConnection().execute(String.format("TRUNCATE %s;", NAME_TABLE_CA));
 	}
+	
+	/**
+	 * Reads rows like {@link ResultSet#one()} but requests the next page in the background
+	 * once half of the current page is processed, rather than when it is exhausted. At most
+	 * two pages are held at a time.
+	 */
+	private static class PrefetchingRows
+	{
+		private final ResultSet rows;
+		private final int threshold;
+		private int lastAvailable;
+		private boolean prefetching;
+		
+		public PrefetchingRows(ResultSet rows, int fetchSize)
+		{
+			this.rows = rows;
+			this.threshold = fetchSize / 2;
+			this.lastAvailable = 0;
+			this.prefetching = false;
+		}
+		
+		/**
+		 * @return the next row or null if there is none
+		 */
+		public Row next()
+		{
+			Row result = rows.one();
+			int available = rows.getAvailableWithoutFetching();
+			if(available > lastAvailable)
+			{
+				prefetching = false; // a new page has arrived
+			}
+			lastAvailable = available;
+			
+			// pages may be shorter than the fetch size so don't wait for an exact count
+			if(!prefetching && (available <= threshold) && !rows.isFullyFetched())
+			{
+				rows.fetchMoreResults();
+				prefetching = true;
+			}
+			return result;
+		}
+	}
 }
\ No newline at end of file
@@ -1,10 +1,21 @@
 package org.skycrawl.nosqlshowcase.server.mongodb;
 
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.skycrawl.nosqlshowcase.server.Logger;
 import org.skycrawl.nosqlshowcase.server.mongodb.controller.MongoDBDataController;
 import org.skycrawl.nosqlshowcase.server.root.common.db.AbstractDatabaseConnection;
+import org.skycrawl.nosqlshowcase.server.root.common.db.PoolSettings;
+import org.skycrawl.nosqlshowcase.server.root.common.db.PoolUtilization;
 
 import com.mongodb.DB;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.ServerAddress;
 
 public class MongoDBConnection extends AbstractDatabaseConnection<DB, MongoDBDataController>
 {
@@ -15,7 +26,16 @@ public class MongoDBConnection extends AbstractDatabaseConnection<DB, MongoDBDat
 	@Override
 	protected DB doConnect(String hostname, int port) throws Exception
 	{
-		return new MongoClient(hostname, port).getDB(dbName);
+		PoolSettings settings = getPoolSettings();
+		MongoClientOptions options = MongoClientOptions.builder()
+				.connectionsPerHost(settings.getMaxConnections())
+				.minConnectionsPerHost(Math.min(settings.getMinIdleConnections(), settings.getMaxConnections()))
+				.connectTimeout(settings.getConnectTimeoutMillis())
+				.socketTimeout(settings.getSocketTimeoutMillis())
+				.maxWaitTime(settings.getMaxWaitMillis())
+				.maxConnectionIdleTime(settings.getIdleTimeoutMillis())
+				.build();
+		return new MongoClient(new ServerAddress(hostname, port), options).getDB(dbName);
 	}
 	
 	@Override
@@ -30,6 +50,35 @@ public class MongoDBConnection extends AbstractDatabaseConnection<DB, MongoDBDat
 		return getConnection().command("buildInfo").getString("version");
 	}
 	
+	/**
+	 * The driver only publishes pool statistics through JMX.
+	 */
+	@Override
+	public PoolUtilization getPoolUtilization()
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			for(ObjectName name : server.queryNames(new ObjectName("org.mongodb.driver:type=ConnectionPool,*"), null))
+			{
+				if(getHostname().equals(name.getKeyProperty("host")) && String.valueOf(getPort()).equals(name.getKeyProperty("port")))
+				{
+					return new PoolUtilization(
+							(Integer) server.getAttribute(name, "Size"),
+							(Integer) server.getAttribute(name, "CheckedOutCount"),
+							(Integer) server.getAttribute(name, "MaxSize"),
+							(Integer) server.getAttribute(name, "WaitQueueSize")
+					);
+				}
+			}
+		}
+		catch (JMException e)
+		{
+			Logger.logThrowable("Could not read MongoDB connection pool statistics: ", e);
+		}
+		return new PoolUtilization(PoolUtilization.UNKNOWN, PoolUtilization.UNKNOWN, getPoolSettings().getMaxConnections(), PoolUtilization.UNKNOWN);
+	}
+	
 	@Override
 	protected boolean isAlive()
 	{
@@ -0,0 +1,221 @@
+package org.skycrawl.nosqlshowcase.server.mongodb.controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.logging.Level;
+
+import org.skycrawl.nosqlshowcase.server.Logger;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+
+/**
+ * <p>Indexes required by a collection, declared in one place. {@link #ensureIndexes(boolean)}
+ * checks them against what the server has: missing indexes are built, those that differ from
+ * their declaration are reported (and rebuilt, if allowed) and those declared obsolete are
+ * dropped. Indexes are only recognized by name.</p>
+ *
+ * <p>Index sizes and (if the server supports it) usage counts can be reported with
+ * {@link #getIndexUsage()}.</p>
+ *
+ * @author SkyCrawl
+ */
+public class IndexManager
+{
+	private final DBCollection collection;
+	private final Map<String, DBObject> nameToKeys;
+	private final Set<String> uniqueIndexes;
+	private final Set<String> obsoleteIndexes;
+
+	public IndexManager(DBCollection collection)
+	{
+		this.collection = collection;
+		this.nameToKeys = new LinkedHashMap<String, DBObject>();
+		this.uniqueIndexes = new HashSet<String>();
+		this.obsoleteIndexes = new HashSet<String>();
+	}
+
+	/**
+	 * Declares a required index.
+	 *
+	 * @param name
+	 * @param keys fields mapped to 1 (ascending) or -1 (descending), in order
+	 * @param unique
+	 * @return this manager
+	 */
+	public IndexManager declare(String name, DBObject keys, boolean unique)
+	{
+		nameToKeys.put(name, keys);
+		if(unique)
+		{
+			uniqueIndexes.add(name);
+		}
+		return this;
+	}
+
+	/**
+	 * Declares an index that was required once but is no longer.
+	 *
+	 * @param name
+	 * @return this manager
+	 */
+	public IndexManager declareObsolete(String name)
+	{
+		obsoleteIndexes.add(name);
+		return this;
+	}
+
+	/**
+	 * @return true if the index exists on the server and matches its declaration
+	 */
+	public boolean isBuilt(String name)
+	{
+		for(DBObject index : collection.getIndexInfo())
+		{
+			if(name.equals(index.get("name")))
+			{
+				return matchesDeclaration(index);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Builds missing indexes in the background and drops the obsolete ones. An index that
+	 * can not be built (e.g. a unique index when there already are duplicates) is reported
+	 * and left out.
+	 *
+	 * @param rebuildMismatched whether indexes that differ from their declaration are dropped
+	 * and built again; they are only reported otherwise
+	 */
+	public void ensureIndexes(boolean rebuildMismatched)
+	{
+		Set<String> built = new HashSet<String>();
+		for(DBObject index : collection.getIndexInfo())
+		{
+			String name = (String) index.get("name");
+			if(obsoleteIndexes.contains(name))
+			{
+				Logger.log(Level.INFO, String.format("Dropping obsolete index '%s' of collection '%s'.", name, collection.getName()));
+				collection.dropIndex(name);
+			}
+			else if(nameToKeys.containsKey(name))
+			{
+				if(matchesDeclaration(index))
+				{
+					built.add(name);
+				}
+				else if(rebuildMismatched)
+				{
+					Logger.log(Level.WARNING, String.format("Index '%s' of collection '%s' differs from its declaration, dropping it.", name, collection.getName()));
+					collection.dropIndex(name);
+				}
+				else
+				{
+					Logger.log(Level.WARNING, String.format("Index '%s' of collection '%s' differs from its declaration, it needs to be rebuilt.", name, collection.getName()));
+					built.add(name); // can't build another one of the same name
+				}
+			}
+		}
+
+		for(Entry<String, DBObject> entry : nameToKeys.entrySet())
+		{
+			if(!built.contains(entry.getKey()))
+			{
+				Logger.log(Level.INFO, String.format("Building index '%s' of collection '%s'.", entry.getKey(), collection.getName()));
+				BasicDBObject options = new BasicDBObject("name", entry.getKey()).append("background", true);
+				if(uniqueIndexes.contains(entry.getKey()))
+				{
+					options.append("unique", true);
+				}
+				try
+				{
+					collection.createIndex(entry.getValue(), options);
+				}
+				catch (MongoException e)
+				{
+					Logger.logThrowable(String.format("Could not build index '%s' of collection '%s': ", entry.getKey(), collection.getName()), e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Accesses are only counted by servers that support the "$indexStats" aggregation stage
+	 * (MongoDB 3.2 and later), they are left out otherwise.
+	 *
+	 * @return a short description of size and usage of each index, by name
+	 */
+	public Map<String, String> getIndexUsage()
+	{
+		Map<String, Object> nameToAccesses = new LinkedHashMap<String, Object>();
+		try
+		{
+			List<DBObject> pipeline = Collections.<DBObject>singletonList(new BasicDBObject("$indexStats", new BasicDBObject()));
+			for(DBObject stats : collection.aggregate(pipeline).results())
+			{
+				DBObject accesses = (DBObject) stats.get("accesses");
+				nameToAccesses.put((String) stats.get("name"), accesses.get("ops"));
+			}
+		}
+		catch (MongoException e)
+		{
+			// not supported by the server
+		}
+
+		Map<String, String> result = new LinkedHashMap<String, String>();
+		DBObject indexSizes = (DBObject) collection.getStats().get("indexSizes");
+		for(String name : indexSizes.keySet())
+		{
+			long kiloBytes = ((Number) indexSizes.get(name)).longValue() / 1024;
+			result.put(name, nameToAccesses.containsKey(name) ?
+					String.format("%d kB, %s accesses", kiloBytes, nameToAccesses.get(name)) :
+					String.format("%d kB", kiloBytes));
+		}
+		return result;
+	}
+
+	private boolean matchesDeclaration(DBObject index)
+	{
+		String name = (String) index.get("name");
+		boolean unique = Boolean.TRUE.equals(index.get("unique"));
+		return (unique == uniqueIndexes.contains(name)) && sameKeys((DBObject) index.get("key"), nameToKeys.get(name));
+	}
+
+	/**
+	 * The server may give back key directions as doubles, so they are compared as integers.
+	 */
+	private static boolean sameKeys(DBObject keys1, DBObject keys2)
+	{
+		List<String> fields = new ArrayList<String>(keys1.keySet());
+		if(!fields.equals(new ArrayList<String>(keys2.keySet())))
+		{
+			return false;
+		}
+		for(String field : fields)
+		{
+			Object value1 = keys1.get(field);
+			Object value2 = keys2.get(field);
+			if((value1 instanceof Number) && (value2 instanceof Number))
+			{
+				if(((Number) value1).intValue() != ((Number) value2).intValue())
+				{
+					return false;
+				}
+			}
+			else if(!value1.equals(value2))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -1,17 +1,35 @@
 package org.skycrawl.nosqlshowcase.server.mongodb.controller;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
 
 import org.apache.commons.lang.StringUtils;
+import org.skycrawl.nosqlshowcase.server.Config;
+import org.skycrawl.nosqlshowcase.server.Logger;
 import org.skycrawl.nosqlshowcase.server.root.common.db.AbstractDataController;
+import org.skycrawl.nosqlshowcase.server.root.common.db.BulkStoreResult;
+import org.skycrawl.nosqlshowcase.server.root.common.db.CertificateCache;
+import org.skycrawl.nosqlshowcase.server.root.common.exceptions.DuplicateItemException;
+import org.skycrawl.nosqlshowcase.server.root.common.model.CertFingerprint;
 import org.skycrawl.nosqlshowcase.server.root.common.model.WebsiteToCertDataModel;
 import org.skycrawl.nosqlshowcase.server.root.common.sample.DefaultCertObject;
+import org.skycrawl.nosqlshowcase.server.root.common.sample.SampleWebsite;
 
+import com.mongodb.AggregationOptions;
 import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.Cursor;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
@@ -24,15 +42,179 @@ public class MongoDBDataController extends AbstractDataController<DB>
 	private static final String COLLECTION_CERTCHAINS = "certs";
 	private static final String COLLECTION_DOMAINS = "domains";
 	
+	/**
+	 * Maximum number of documents sent in a single bulk insert by {@link #doStoreAll(Collection)}.
+	 */
+	private static final int STORE_BATCH_SIZE = 1000;
+	
+	private static final int BSON_TYPE_OBJECT_ID = 7;
+	private static final int ERROR_CODE_DUPLICATE_KEY = 11000;
+	
+	/*
+	 * Indexes of the domain collection.
+	 */
+	private static final String INDEX_DOMAIN = "domain_unique";
+	private static final String INDEX_TLD_ROOT_CA = "tld_rootCA_domain";
+	
+	private final IndexManager domainIndexes;
+	
 	public MongoDBDataController(DB connection)
 	{
 		super(connection);
+		
+		/*
+		 * The compound index serves all the reads: TLDs are its prefix and the Venn diagram
+		 * query only needs TLDs and root CA fingerprints.
+		 */
+		this.domainIndexes = new IndexManager(connection.getCollection(COLLECTION_DOMAINS))
+				.declare(INDEX_DOMAIN, new BasicDBObject("domain", 1), true)
+				.declare(INDEX_TLD_ROOT_CA, new BasicDBObject("tld", 1).append("rootCA.fp", 1).append("domain", 1), false)
+				.declareObsolete("tld_1"); // replaced by the compound index
 	}
 	
 	@Override
 	public void init() throws Exception
 	{
-		getConnection().getCollection(COLLECTION_DOMAINS).createIndex(new BasicDBObject("tld", 1));
+		// bring older data up to date
+		migrateRootCAs();
+		migrateCertChainIDs();
+		if(!domainIndexes.isBuilt(INDEX_DOMAIN))
+		{
+			removeDuplicateDomains(Config.getMongoRemoveDuplicateDomains());
+		}
+		
+		// and make sure the indexes are there
+		domainIndexes.ensureIndexes(Config.getMongoRebuildIndexes());
+		Logger.log(Level.INFO, "MongoDB domain indexes: " + domainIndexes.getIndexUsage());
+	}
+	
+	/**
+	 * @return a short description of size and usage of each index of the domain collection, by name
+	 */
+	public Map<String, String> getIndexUsage()
+	{
+		return domainIndexes.getIndexUsage();
+	}
+	
+	/**
+	 * Domains were not unique before {@link #INDEX_DOMAIN} was introduced. Only the first
+	 * stored document of each domain is kept so that the index can be built, each removed
+	 * document is logged.
+	 * 
+	 * @param remove whether the duplicates are removed; they are only reported otherwise
+	 * (and the index is not built)
+	 */
+	private void removeDuplicateDomains(boolean remove)
+	{
+		DBCollection collDomains = getConnection().getCollection(COLLECTION_DOMAINS);
+		List<DBObject> pipeline = new ArrayList<DBObject>();
+		pipeline.add(new BasicDBObject("$group", new BasicDBObject()
+				.append("_id", "$domain")
+				.append("ids", new BasicDBObject("$push", "$_id"))
+				.append("count", new BasicDBObject("$sum", 1))
+		));
+		pipeline.add(new BasicDBObject("$match", new BasicDBObject("count", new BasicDBObject("$gt", 1))));
+		Cursor duplicateCursor = collDomains.aggregate(pipeline, AggregationOptions.builder()
+				.outputMode(AggregationOptions.OutputMode.CURSOR)
+				.allowDiskUse(true)
+				.build());
+		int duplicates = 0;
+		try
+		{
+			while(duplicateCursor.hasNext())
+			{
+				DBObject duplicate = duplicateCursor.next();
+				List<?> ids = (List<?>) duplicate.get("ids");
+				List<?> toRemove = ids.subList(1, ids.size());
+				if(remove)
+				{
+					Logger.log(Level.WARNING, String.format("Removing duplicate documents %s of domain '%s', keeping %s.", toRemove, duplicate.get("_id"), ids.get(0)));
+					collDomains.remove(new BasicDBObject("_id", new BasicDBObject("$in", toRemove)));
+				}
+				duplicates += toRemove.size();
+			}
+		}
+		finally
+		{
+			duplicateCursor.close();
+		}
+		
+		if(duplicates > 0)
+		{
+			Logger.log(Level.WARNING, remove ?
+					String.format("Removed %d duplicate domain documents.", duplicates) :
+					String.format("There are %d duplicate domain documents, index '%s' can't be built. Remove them or set the 'mongoRemoveDuplicateDomains' context parameter.",
+							duplicates, INDEX_DOMAIN));
+		}
+	}
+	
+	/**
+	 * Certificate chains used to be stored once per domain, under generated IDs. Each such
+	 * chain is stored again under its {@link CertFingerprint#ofChain(List) fingerprint} (only
+	 * once for equal chains), the domain is linked to it and the old chains are removed.
+	 */
+	private void migrateCertChainIDs()
+	{
+		DBCollection collCerts = getConnection().getCollection(COLLECTION_CERTCHAINS);
+		DBCollection collDomains = getConnection().getCollection(COLLECTION_DOMAINS);
+		DBObject generatedID = new BasicDBObject("$type", BSON_TYPE_OBJECT_ID);
+		DBCursor domainCursor = collDomains.find(new BasicDBObject("certs.$id", generatedID));
+		try
+		{
+			while(domainCursor.hasNext())
+			{
+				DBObject domain = domainCursor.next();
+				DBObject certChain = collCerts.findOne(new BasicDBObject("_id", ((DBRef) domain.get("certs")).getId()));
+				if(certChain == null)
+				{
+					throw new MongoException(String.format("Broken certificate chain reference at domain '%s'.", (String) domain.get("domain")));
+				}
+				String certChainID = upsertCertChain(collCerts, chainFromBSON(certChain));
+				collDomains.update(
+						new BasicDBObject("_id", domain.get("_id")),
+						new BasicDBObject("$set", new BasicDBObject("certs", new DBRef(getConnection(), COLLECTION_CERTCHAINS, certChainID)))
+				);
+			}
+		}
+		finally
+		{
+			domainCursor.close();
+		}
+		collCerts.remove(new BasicDBObject("_id", generatedID));
+	}
+	
+	/**
+	 * Domains stored before their root CA was denormalized into them get it from the
+	 * referenced certificate chain.
+	 */
+	private void migrateRootCAs()
+	{
+		DBCollection collCerts = getConnection().getCollection(COLLECTION_CERTCHAINS);
+		DBCollection collDomains = getConnection().getCollection(COLLECTION_DOMAINS);
+		DBCursor domainCursor = collDomains.find(new BasicDBObject("rootCA", new BasicDBObject("$exists", false)));
+		try
+		{
+			while(domainCursor.hasNext())
+			{
+				DBObject domain = domainCursor.next();
+				DBObject rootCAObject = collCerts.findOne(
+						new BasicDBObject("_id", ((DBRef) domain.get("certs")).getId()),
+						new BasicDBObject("signs", 0) // root CA is the top-level document, the rest of the chain is not needed
+				);
+				if(rootCAObject == null)
+				{
+					throw new MongoException(String.format("Broken certificate chain reference at domain '%s'.", (String) domain.get("domain")));
+				}
+				collDomains.update(
+						new BasicDBObject("_id", domain.get("_id")),
+						new BasicDBObject("$set", new BasicDBObject("rootCA", toBSON(fromBSON(rootCAObject))))
+				);
+			}
+		}
+		finally
+		{
+			domainCursor.close();
+		}
 	}
 	
 	@SuppressWarnings({ "rawtypes", "unchecked" })
@@ -43,55 +225,239 @@ public class MongoDBDataController extends AbstractDataController<DB>
 		return new LinkedHashSet<String>(result);
 	}
 
+	/**
+	 * Every domain carries a copy of its root CA so a single aggregation, grouping domains
+	 * by TLD and root CA fingerprint, computes everything on the server. It only needs fields
+	 * of {@link #INDEX_TLD_ROOT_CA}, not the documents. Only one document per TLD and root CA
+	 * is sent back. Root CAs that are not in {@link CertificateCache} are then read from any
+	 * of their domains.
+	 */
 	@Override
 	public WebsiteToCertDataModel getSetDomainAndIntersections(Set<String> tlds) throws Exception
 	{
-		DBCollection collCerts = getConnection().getCollection(COLLECTION_CERTCHAINS);
 		WebsiteToCertDataModel result = new WebsiteToCertDataModel();
 		for(String tld : tlds)
 		{
-			// register the current TLD
 			result.registerSet(tld);
-			
-			// and process domains individually
-			DBCursor domainCursor = getConnection().getCollection(COLLECTION_DOMAINS).find(new BasicDBObject("tld", tld));
-			while(domainCursor.hasNext())
+		}
+		
+		List<DBObject> pipeline = new ArrayList<DBObject>();
+		pipeline.add(new BasicDBObject("$match", new BasicDBObject("tld", new BasicDBObject("$in", new ArrayList<String>(tlds)))));
+		pipeline.add(new BasicDBObject("$project", new BasicDBObject("_id", 0).append("tld", 1).append("rootCA.fp", 1)));
+		pipeline.add(new BasicDBObject("$group", new BasicDBObject()
+				.append("_id", new BasicDBObject("tld", "$tld").append("fp", "$rootCA.fp"))
+				.append("websites", new BasicDBObject("$sum", 1))
+		));
+		AggregationOptions options = AggregationOptions.builder()
+				.outputMode(AggregationOptions.OutputMode.CURSOR)
+				.batchSize(Config.getFetchSize())
+				.allowDiskUse(true)
+				.build();
+		
+		final DBCollection collDomains = getConnection().getCollection(COLLECTION_DOMAINS);
+		Cursor overlapCursor = collDomains.aggregate(pipeline, options);
+		try
+		{
+			while(overlapCursor.hasNext())
 			{
-				DBObject currentDomain = domainCursor.next();
-				DBObject certChain = collCerts.findOne(new BasicDBObject("_id", ((DBRef) currentDomain.get("certs")).getId()));
-				if(certChain != null)
+				DBObject overlap = overlapCursor.next();
+				final String tld = (String) ((DBObject) overlap.get("_id")).get("tld");
+				final String fingerprint = (String) ((DBObject) overlap.get("_id")).get("fp");
+				DefaultCertObject rootCA = CertificateCache.getShared().get(fingerprint, DefaultCertObject.class, new Callable<DefaultCertObject>()
 				{
-					DefaultCertObject rootCA = fromBSON(certChain);
-					
-					// register the certificate
-					result.registerSet(rootCA);
-					
-					// and register the current found overlap
-					result.registerOverlap((String) currentDomain.get("domain"), tld, rootCA);
+					@Override
+					public DefaultCertObject call()
+					{
+						DBObject domain = collDomains.findOne(
+								new BasicDBObject("tld", tld).append("rootCA.fp", fingerprint),
+								new BasicDBObject("rootCA", 1)
+						);
+						if(domain == null) // deleted since the aggregation
+						{
+							throw new MongoException(String.format("No domain from TLD '%s' is signed by root CA '%s' any more.", tld, fingerprint));
+						}
+						return fromBSON((DBObject) domain.get("rootCA"));
+					}
+				});
+				
+				// register the certificate
+				result.registerSet(rootCA);
+				
+				// and register the websites it signs
+				result.registerOverlap(tld, rootCA, ((Number) overlap.get("websites")).intValue());
+			}
+		}
+		finally
+		{
+			overlapCursor.close();
+		}
+		return result;
+	}
+	
+	/**
+	 * Certificate chains are stored under their {@link CertFingerprint#ofChain(List) fingerprint},
+	 * only once for all domains that share them.
+	 */
+	@Override
+	protected boolean doStore(URL website, List<DefaultCertObject> certificateChain) throws Exception
+	{
+		// store the certificate chain first (unless it's already there) so that we can reference it
+		String certChainID = upsertCertChain(getConnection().getCollection(COLLECTION_CERTCHAINS), certificateChain);
+		
+		// store domain information into a collection dedicated to TLD, with a reference to the above stored certificate chain
+		DefaultCertObject rootCA = certificateChain.get(certificateChain.size() - 1);
+		try
+		{
+			getConnection().getCollection(COLLECTION_DOMAINS).insert(toDomainBSON(website.getHost(), certChainID, rootCA));
+		}
+		catch (MongoException.DuplicateKey e) // domains are unique, see INDEX_DOMAIN
+		{
+			throw new DuplicateItemException();
+		}
+		
+		// and return
+		return true;
+	}
+	
+	/**
+	 * Stores the websites in batches of up to {@link #STORE_BATCH_SIZE} documents: an unordered
+	 * bulk upsert of the distinct certificate chains first and then an unordered bulk insert
+	 * of the referencing domains. Domains rejected by {@link #INDEX_DOMAIN} are duplicates.
+	 * If the write concern could not be satisfied, none of the batch is considered stored.
+	 */
+	@Override
+	protected BulkStoreResult doStoreAll(Collection<SampleWebsite> websites) throws Exception
+	{
+		BulkStoreResult result = new BulkStoreResult();
+		List<SampleWebsite> batch = new ArrayList<SampleWebsite>();
+		for(SampleWebsite website : websites)
+		{
+			batch.add(website);
+			if(batch.size() == STORE_BATCH_SIZE)
+			{
+				storeBatch(batch, result);
+				batch.clear();
+			}
+		}
+		if(!batch.isEmpty())
+		{
+			storeBatch(batch, result);
+		}
+		return result;
+	}
+	
+	private void storeBatch(List<SampleWebsite> batch, BulkStoreResult result)
+	{
+		BulkWriteOperation certChains = getConnection().getCollection(COLLECTION_CERTCHAINS).initializeUnorderedBulkOperation();
+		Set<String> certChainIDs = new HashSet<String>();
+		BulkWriteOperation domains = getConnection().getCollection(COLLECTION_DOMAINS).initializeUnorderedBulkOperation();
+		for(SampleWebsite website : batch)
+		{
+			String certChainID = CertFingerprint.ofChain(website.getCertificateChain());
+			if(certChainIDs.add(certChainID))
+			{
+				certChains.find(new BasicDBObject("_id", certChainID)).upsert().updateOne(
+						new BasicDBObject("$setOnInsert", toBSON(website.getCertificateChain())));
+			}
+			domains.insert(toDomainBSON(website.getDomain(), certChainID, website.getRootCA()));
+		}
+		try
+		{
+			certChains.execute();
+		}
+		catch (MongoException e)
+		{
+			// the domains would reference missing (or not durable) chains
+			Logger.logThrowable("Could not store certificate chains: ", e);
+			result.getFailed().addAll(batch);
+			return;
+		}
+		
+		Set<Integer> rejected = new HashSet<Integer>();
+		boolean notAcknowledged = false;
+		try
+		{
+			domains.execute();
+		}
+		catch (BulkWriteException e)
+		{
+			if(e.getWriteConcernError() != null)
+			{
+				Logger.log(Level.WARNING, "Write concern not satisfied for a batch of domains: " + e.getWriteConcernError().getMessage());
+				notAcknowledged = true;
+			}
+			for(BulkWriteError error : e.getWriteErrors())
+			{
+				rejected.add(error.getIndex());
+				if(error.getCode() == ERROR_CODE_DUPLICATE_KEY)
+				{
+					result.getDuplicates().add(batch.get(error.getIndex()));
 				}
 				else
 				{
-					throw new MongoException(String.format("Broken certificate chain reference at domain '%s'.", (String) currentDomain.get("domain")));
+					result.getFailed().add(batch.get(error.getIndex()));
+				}
+			}
+		}
+		for(int i = 0; i < batch.size(); i++)
+		{
+			if(!rejected.contains(i))
+			{
+				if(notAcknowledged)
+				{
+					result.getFailed().add(batch.get(i));
+				}
+				else
+				{
+					result.getStored().add(batch.get(i));
 				}
 			}
 		}
-		return result;
 	}
+
+	//----------------------------------------------------------------
+	// INHERITED MASSIVE MANIPULATION ROUTINES
 	
 	@Override
-	public boolean store(URL website, List<DefaultCertObject> certificateChain) throws Exception
+	protected void doClearDatabase()
 	{
-		String domain = website.getHost();
-		
-		/*
-		 * Root authorities should be first so that we don't have to
-		 * use more complex code to dig it out later from BSON.
-		 */
-		Collections.reverse(certificateChain);
+		// don't drop database (could invalidate our {@link DB} instance...)
+		getConnection().getCollection(COLLECTION_CERTCHAINS).drop();
+		getConnection().getCollection(COLLECTION_DOMAINS).drop();
+	}
+	
+	//----------------------------------------------------------------
+	// PRIVATE INTERFACE
+	
+	/**
+	 * Stores the certificate chain unless it is already stored.
+	 * 
+	 * @return ID of the stored chain
+	 */
+	private static String upsertCertChain(DBCollection collCerts, List<DefaultCertObject> certificateChain)
+	{
+		String result = CertFingerprint.ofChain(certificateChain);
+		collCerts.update(
+				new BasicDBObject("_id", result),
+				new BasicDBObject("$setOnInsert", toBSON(certificateChain)),
+				true, // upsert
+				false // multi
+		);
+		return result;
+	}
+	
+	/**
+	 * Converts the certificate chain into a recursive object (using embedded documents).
+	 * Root authorities are first so that we don't have to use more complex code to dig
+	 * them out later from BSON.
+	 */
+	private static BasicDBObject toBSON(List<DefaultCertObject> certificateChain)
+	{
+		List<DefaultCertObject> rootFirst = new ArrayList<DefaultCertObject>(certificateChain);
+		Collections.reverse(rootFirst);
 		
-		// store the certificate chain as a recursive object (using embedded documents)
 		BasicDBObject master = null, current = null;
-		for(DefaultCertObject cert : certificateChain)
+		for(DefaultCertObject cert : rootFirst)
 		{
 			if(master == null)
 			{
@@ -105,36 +471,41 @@ public class MongoDBDataController extends AbstractDataController<DB>
 				current = next;
 			}
 		}
-		getConnection().getCollection(COLLECTION_CERTCHAINS).insert(master);
-		
-		// store domain information into a collection dedicated to TLD, with a reference to the above stored certificate chain
-		BasicDBObject domainInfo = new BasicDBObject(3);
+		return master;
+	}
+	
+	/**
+	 * The root CA is copied into the domain document so that reads need not look up the
+	 * certificate chain. It never changes so the copy never gets stale.
+	 */
+	private BasicDBObject toDomainBSON(String domain, String certChainID, DefaultCertObject rootCA)
+	{
+		BasicDBObject domainInfo = new BasicDBObject(4);
 		domainInfo.append("domain", domain);
 		domainInfo.append("tld", StringUtils.substringAfterLast(domain, "."));
-		domainInfo.append("certs", new DBRef(getConnection(), COLLECTION_CERTCHAINS, master.get("_id")));
-		getConnection().getCollection(COLLECTION_DOMAINS).insert(domainInfo);
-		
-		// and return
-		return true;
+		domainInfo.append("certs", new DBRef(getConnection(), COLLECTION_CERTCHAINS, certChainID));
+		domainInfo.append("rootCA", toBSON(rootCA));
+		return domainInfo;
 	}
-
-	//----------------------------------------------------------------
-	// INHERITED MASSIVE MANIPULATION ROUTINES
 	
-	@Override
-	public void clearDatabase()
+	/**
+	 * Inverse of {@link #toBSON(List)}.
+	 */
+	private static List<DefaultCertObject> chainFromBSON(DBObject certChain)
 	{
-		// don't drop database (could invalidate our {@link DB} instance...)
-		getConnection().getCollection(COLLECTION_CERTCHAINS).drop();
-		getConnection().getCollection(COLLECTION_DOMAINS).drop();
+		List<DefaultCertObject> result = new ArrayList<DefaultCertObject>();
+		for(DBObject current = certChain; current != null; current = (DBObject) current.get("signs"))
+		{
+			result.add(fromBSON(current));
+		}
+		Collections.reverse(result);
+		return result;
 	}
 	
-	//----------------------------------------------------------------
-	// PRIVATE INTERFACE
-	
 	private static BasicDBObject toBSON(DefaultCertObject cert)
 	{
-		BasicDBObject result = new BasicDBObject(5);
+		BasicDBObject result = new BasicDBObject(6);
+		result.append("fp", cert.getFingerprint());
 		result.append("cn", cert.getCommonName());
 		result.append("on", cert.getOrganizationName());
 		result.append("ou", cert.getOrganizationUnit());
@@ -1,16 +1,22 @@
 package org.skycrawl.nosqlshowcase.server.neo4j;
 
+import org.skycrawl.nosqlshowcase.server.Config;
 import org.skycrawl.nosqlshowcase.server.neo4j.controller.Neo4jDataController;
 import org.skycrawl.nosqlshowcase.server.root.common.db.AbstractDatabaseConnection;
+import org.skycrawl.nosqlshowcase.server.root.common.db.PoolUtilization;
 
 public class Neo4jConnection extends AbstractDatabaseConnection<Neo4jQueryWrapper, Neo4jDataController>
 {
 	private static final long	serialVersionUID	= 953686838975338432L;
 	
+	/**
+	 * Embedded database - hostname and port are ignored, the store is opened from
+	 * {@link Config#getNeo4jStorePath()}.
+	 */
 	@Override
 	protected Neo4jQueryWrapper doConnect(String hostname, int port) throws Exception
 	{
-		return new Neo4jQueryWrapper();
+		return new Neo4jQueryWrapper(Config.getNeo4jStorePath(), Config.getNeo4jSettings());
 	}
 	
 	@Override
@@ -26,6 +32,15 @@ public class Neo4jConnection extends AbstractDatabaseConnection<Neo4jQueryWrappe
 		return getConnection().getDBVersion();
 	}
 	
+	/**
+	 * Embedded database - there are no connections to pool.
+	 */
+	@Override
+	public PoolUtilization getPoolUtilization()
+	{
+		return new PoolUtilization(PoolUtilization.UNKNOWN, PoolUtilization.UNKNOWN, PoolUtilization.UNKNOWN, PoolUtilization.UNKNOWN);
+	}
+	
 	@Override
 	protected boolean isAlive()
 	{
@@ -1,26 +1,58 @@
 package org.skycrawl.nosqlshowcase.server.neo4j;
 
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
 import javax.script.ScriptEngine;
 
 import org.neo4j.cypher.javacompat.ExecutionEngine;
 import org.neo4j.cypher.javacompat.ExecutionResult;
+import org.neo4j.graphdb.DynamicLabel;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.schema.IndexDefinition;
 import org.neo4j.graphdb.traversal.TraversalDescription;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+import org.skycrawl.nosqlshowcase.server.Logger;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Iterables;
 import com.tinkerpop.blueprints.Graph;
 import com.tinkerpop.blueprints.impls.neo4j.Neo4jGraph;
 import com.tinkerpop.gremlin.groovy.jsr223.GremlinGroovyScriptEngine;
 
 public class Neo4jQueryWrapper
 {
+	/**
+	 * Bulk load into a new store, see {@link Neo4jQueryWrapper#batchInsert(String, Map, BatchInsertion)}.
+	 */
+	public interface BatchInsertion
+	{
+		void insert(BatchInserter inserter);
+	}
+	
 	/**
 	 * Currently, the only way to communicate with remote Neo4j database using Java is the REST API.
 	 * Since there're no decent and up-to-date wrappers for it and all the Neo4j tutorials only focus
 	 * on the "Embedded framework" (for Neo4j instances running locally on the same machine), let's
-	 * use it too. 
+	 * use it too. The store is opened by a single embedded instance, shared by Cypher, traversals
+	 * and Gremlin.
 	 */
-	private static final String LOCAL_DB_PATH = "/Users/SkyCrawl/Shared/_misc/neo4j-community-2.1.6";
+	private final String storePath;
+	
+	/**
+	 * Neo4j settings (e.g. sizes of memory mapped store files) used to open the store.
+	 */
+	private final Map<String, String> settings;
 	
 	/*
 	 * Global database variables.
@@ -32,6 +64,15 @@ public class Neo4jQueryWrapper
 	 */
 	private final ExecutionEngine cypherEngine;
 	
+	/**
+	 * The engine caches execution plans by query text but does not tell whether a plan
+	 * was reused. This mirrors its cache (of "query_cache_size" plans) to estimate
+	 * the hit rate.
+	 */
+	private static final String SETTING_QUERY_CACHE_SIZE = "query_cache_size";
+	private static final int DEFAULT_QUERY_CACHE_SIZE = 100;
+	private final Cache<String, Boolean> planCacheEstimate;
+	
 	/*
 	 * Gremlin-specific variables. See also:
 	 * https://github.com/tinkerpop/gremlin/wiki/Using-Gremlin-through-Java
@@ -40,17 +81,28 @@ public class Neo4jQueryWrapper
 	private final ScriptEngine gremlinEngine;
 	private final Graph gremlinGraphBlueprint;
 	
-	public Neo4jQueryWrapper()
+	/**
+	 * @param storePath directory of the store, created if it does not exist
+	 * @param settings Neo4j settings to open the store with, by name
+	 */
+	public Neo4jQueryWrapper(String storePath, Map<String, String> settings)
 	{
 		super();
-		this.neo4jService = new GraphDatabaseFactory().newEmbeddedDatabase(LOCAL_DB_PATH);
+		this.storePath = storePath;
+		this.settings = settings;
+		this.planCacheEstimate = CacheBuilder.newBuilder()
+				.maximumSize(settings.containsKey(SETTING_QUERY_CACHE_SIZE) ? Integer.parseInt(settings.get(SETTING_QUERY_CACHE_SIZE).trim()) : DEFAULT_QUERY_CACHE_SIZE)
+				.recordStats()
+				.build();
+		Logger.log(Level.INFO, String.format("Opening Neo4j store '%s' with settings %s.", storePath, settings));
+		this.neo4jService = new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(storePath).setConfig(settings).newGraphDatabase();
 		
 		// cypher init
 		this.cypherEngine = new ExecutionEngine(neo4jService);
 		
-		// gremlin init
+		// gremlin init - opening the store again would map its files twice (if it were not locked)
 		this.gremlinEngine = new GremlinGroovyScriptEngine();
-		this.gremlinGraphBlueprint = new Neo4jGraph(LOCAL_DB_PATH);
+		this.gremlinGraphBlueprint = new Neo4jGraph(neo4jService);
 	}
 	
 	//----------------------------------------------------------------------------------------
@@ -70,15 +122,84 @@ public class Neo4jQueryWrapper
 		return neo4jService.isAvailable(1500);
 	}
 
+	/**
+	 * The Gremlin graph is not shut down on its own, it only wraps the database.
+	 */
 	public void close()
 	{
-		gremlinGraphBlueprint.shutdown();
 		neo4jService.shutdown();
 	}
 	
+	/**
+	 * <p>Bulk loads data into a new store with a {@link BatchInserter}, which writes directly
+	 * to the store files without transactions. The inserter needs exclusive access to the
+	 * store, which can only be guaranteed for a store that does not exist yet - nothing else
+	 * can be using it. The store can be opened with a wrapper afterwards.</p>
+	 * 
+	 * <p>Nothing is checked during insertion, not even uniqueness constraints. Schema
+	 * indexes are rebuilt when the inserter is shut down.</p>
+	 * 
+	 * @param storePath directory of the store
+	 * @param settings Neo4j settings to open the store with, by name
+	 * @throws IllegalStateException if there already is a store in the given directory
+	 */
+	public static void batchInsert(String storePath, Map<String, String> settings, BatchInsertion insertion)
+	{
+		if(new File(storePath, "neostore").exists())
+		{
+			throw new IllegalStateException(String.format("Bulk load refused, there already is a store in '%s'.", storePath));
+		}
+		BatchInserter inserter = BatchInserters.inserter(storePath, settings);
+		try
+		{
+			insertion.insert(inserter);
+		}
+		finally
+		{
+			inserter.shutdown();
+		}
+	}
+	
 	//----------------------------------------------------------------------------------------
 	// QUERY-SPECIFIC METHODS
 	
+	public Transaction beginTx()
+	{
+		return neo4jService.beginTx();
+	}
+	
+	/**
+	 * Schema indexes are populated in the background after they are created. Queries
+	 * do not use them until they are online.
+	 */
+	public void awaitIndexesOnline(long timeout, TimeUnit unit)
+	{
+		try (Transaction tx = beginTx())
+		{
+			neo4jService.schema().awaitIndexesOnline(timeout, unit);
+			tx.success();
+		}
+	}
+	
+	/**
+	 * Drops the schema index of the given label and property, unless there is none or it
+	 * backs a constraint.
+	 */
+	public void dropIndex(String label, String propertyKey)
+	{
+		try (Transaction tx = beginTx())
+		{
+			for(IndexDefinition index : neo4jService.schema().getIndexes(DynamicLabel.label(label)))
+			{
+				if(!index.isConstraintIndex() && Iterables.contains(index.getPropertyKeys(), propertyKey))
+				{
+					index.drop();
+				}
+			}
+			tx.success();
+		}
+	}
+	
 	public TraversalDescription newTraverser()
 	{
 		return neo4jService.traversalDescription();
@@ -86,6 +207,39 @@ public class Neo4jQueryWrapper
 	
 	public ExecutionResult executeCypherQuery(String query)
 	{
-		return cypherEngine.execute(query);
+		return executeCypherQuery(query, Collections.<String, Object>emptyMap());
+	}
+	
+	/**
+	 * Values should always be passed as parameters (referenced as "{name}" in the query)
+	 * rather than formatted into the query. Otherwise, each distinct value makes a distinct
+	 * query which has to be parsed and planned again.
+	 */
+	public ExecutionResult executeCypherQuery(String query, Map<String, Object> params)
+	{
+		try
+		{
+			planCacheEstimate.get(query, new Callable<Boolean>()
+			{
+				@Override
+				public Boolean call()
+				{
+					return Boolean.TRUE;
+				}
+			});
+		}
+		catch (ExecutionException e)
+		{
+			throw new IllegalStateException(e); // never thrown by the loader above
+		}
+		return cypherEngine.execute(query, params);
+	}
+	
+	/**
+	 * @return estimated reuse of cached Cypher execution plans, see {@link #executeCypherQuery(String, Map)}
+	 */
+	public CacheStats getPlanCacheStats()
+	{
+		return planCacheEstimate.stats();
 	}
 }
\ No newline at end of file
@@ -1,20 +1,39 @@
 package org.skycrawl.nosqlshowcase.server.neo4j.controller;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
 import org.apache.commons.lang.StringUtils;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicLabel;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Path;
 import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.traversal.Evaluators;
+import org.neo4j.graphdb.traversal.Uniqueness;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.skycrawl.nosqlshowcase.server.Config;
+import org.skycrawl.nosqlshowcase.server.Logger;
 import org.skycrawl.nosqlshowcase.server.neo4j.Neo4jQueryWrapper;
 import org.skycrawl.nosqlshowcase.server.root.common.db.AbstractDataController;
+import org.skycrawl.nosqlshowcase.server.root.common.db.BulkStoreResult;
+import org.skycrawl.nosqlshowcase.server.root.common.db.CertificateCache;
 import org.skycrawl.nosqlshowcase.server.root.common.exceptions.DuplicateItemException;
+import org.skycrawl.nosqlshowcase.server.root.common.model.CertFingerprint;
 import org.skycrawl.nosqlshowcase.server.root.common.model.WebsiteToCertDataModel;
 import org.skycrawl.nosqlshowcase.server.root.common.sample.DefaultCertObject;
+import org.skycrawl.nosqlshowcase.server.root.common.sample.SampleWebsite;
 import org.skycrawl.nosqlshowcase.server.root.util.CustomOrderSet;
 
 public class Neo4jDataController extends AbstractDataController<Neo4jQueryWrapper>
@@ -25,14 +44,155 @@ public class Neo4jDataController extends AbstractDataController<Neo4jQueryWrappe
 		SIGNEDBY
 	}
 	
+	/*
+	 * Node labels: (:Tld)-[:INCLUDES]->(:Domain)-[:SIGNEDBY]->(:CA).
+	 */
+	private static final String LABEL_TLD = "Tld";
+	private static final String LABEL_DOMAIN = "Domain";
+	private static final String LABEL_CA = "CA";
+	
+	/*
+	 * Migrations change at most this many nodes (or relationships) in a single transaction.
+	 */
+	private static final int MIGRATION_BATCH_SIZE = 10000;
+	private static final long INDEX_POPULATION_TIMEOUT_SECONDS = 300;
+	
+	/**
+	 * Default maximum number of websites stored in a single transaction by {@link #doStoreAll(Collection)},
+	 * unless {@link Config#getNeo4jStoreBatchSize()} is set.
+	 */
+	public static final int DEFAULT_STORE_BATCH_SIZE = 1000;
+	
+	/*
+	 * Write path settings.
+	 */
+	private int storeBatchSize;
+	
 	public Neo4jDataController(Neo4jQueryWrapper connection)
 	{
 		super(connection);
+		
+		Integer storeBatchSize = Config.getNeo4jStoreBatchSize();
+		setStoreBatchSize(storeBatchSize != null ? storeBatchSize : DEFAULT_STORE_BATCH_SIZE);
+	}
+	
+	public int getStoreBatchSize()
+	{
+		return this.storeBatchSize;
+	}
+
+	public void setStoreBatchSize(int storeBatchSize)
+	{
+		if(storeBatchSize < 1)
+		{
+			throw new IllegalArgumentException("Store batch size must be positive.");
+		}
+		this.storeBatchSize = storeBatchSize;
 	}
 	
 	@Override
 	public void init() throws Exception
 	{
+		// bring older data up to date
+		migrateUnlabeledNodes();
+		migrateLegacyCANodes();
+		mergeDuplicateCANodes();
+		
+		// and make sure the schema is there
+		createSchema();
+	}
+	
+	/**
+	 * Nodes used to be told apart only by their properties. Labels them by the property
+	 * they are looked up by (or, in case of CAs, by the relationship leading to them).
+	 */
+	private void migrateUnlabeledNodes()
+	{
+		runInBatches(String.format("MATCH (n) WHERE has(n.tld) AND NOT n:%s WITH n LIMIT {limit} SET n:%1$s RETURN count(n) AS count", LABEL_TLD), params());
+		runInBatches(String.format("MATCH (n) WHERE has(n.domain) AND NOT n:%s WITH n LIMIT {limit} SET n:%1$s RETURN count(n) AS count", LABEL_DOMAIN), params());
+		runInBatches(String.format("MATCH ()-[:SIGNEDBY]->(n) WHERE NOT n:%s WITH DISTINCT n LIMIT {limit} SET n:%1$s RETURN count(n) AS count", LABEL_CA), params());
+	}
+	
+	/**
+	 * Runs the given query, each time in a transaction of its own, until it changes nothing.
+	 * The query must change at most {limit} items and return their number as "count".
+	 */
+	private void runInBatches(String query, Map<String, Object> params)
+	{
+		params.put("limit", MIGRATION_BATCH_SIZE);
+		long changed;
+		do
+		{
+			Map<String, Object> row = getConnection().executeCypherQuery(query, params).iterator().next();
+			changed = ((Number) row.get("count")).longValue();
+		}
+		while(changed > 0);
+	}
+	
+	/**
+	 * Makes TLD, domain and CA lookups index seeks. Creating existing constraints does nothing.
+	 */
+	private void createSchema()
+	{
+		getConnection().executeCypherQuery(String.format("CREATE CONSTRAINT ON (n:%s) ASSERT n.tld IS UNIQUE", LABEL_TLD));
+		getConnection().executeCypherQuery(String.format("CREATE CONSTRAINT ON (n:%s) ASSERT n.domain IS UNIQUE", LABEL_DOMAIN));
+		getConnection().dropIndex(LABEL_CA, "fp"); // CA nodes used to be only indexed, there was one for each domain
+		getConnection().executeCypherQuery(String.format("CREATE CONSTRAINT ON (n:%s) ASSERT n.fp IS UNIQUE", LABEL_CA));
+		getConnection().awaitIndexesOnline(INDEX_POPULATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * CA nodes used to be stored without a {@link CertFingerprint fingerprint}. Adds it to
+	 * all such nodes so that they can be looked up by it, {@link #MIGRATION_BATCH_SIZE} nodes
+	 * per transaction.
+	 */
+	private void migrateLegacyCANodes()
+	{
+		int migrated;
+		do
+		{
+			try (Transaction tx = getConnection().beginTx())
+			{
+				// collect first - the result is lazy and must not be iterated while writing
+				List<Node> legacyNodes = new ArrayList<Node>();
+				for(Map<String, Object> row : getConnection().executeCypherQuery(String.format("MATCH (ca:%s) WHERE NOT has(ca.fp) RETURN ca LIMIT {limit}", LABEL_CA), params("limit", MIGRATION_BATCH_SIZE)))
+				{
+					legacyNodes.add((Node) row.get("ca"));
+				}
+				for(Node node : legacyNodes)
+				{
+					getConnection().executeCypherQuery("START ca=node({id}) SET ca.fp = {fp}", params("id", node.getId(), "fp", nodeToCert(node).getFingerprint()));
+				}
+				tx.success();
+				migrated = legacyNodes.size();
+			}
+		}
+		while(migrated > 0);
+	}
+	
+	/**
+	 * Each domain used to have a CA node of its own. Keeps one CA node per fingerprint (the
+	 * oldest one), moves the relationships of the others to it and deletes them. A popular
+	 * root CA may have a node for most of the domains so relationships are moved and nodes
+	 * deleted in transactions of {@link #MIGRATION_BATCH_SIZE}.
+	 */
+	private void mergeDuplicateCANodes()
+	{
+		List<String> fingerprints = new ArrayList<String>();
+		for(Map<String, Object> row : getConnection().executeCypherQuery(String.format("MATCH (ca:%s) WITH ca.fp AS fp, count(*) AS count WHERE count > 1 RETURN fp", LABEL_CA)))
+		{
+			fingerprints.add((String) row.get("fp"));
+		}
+		for(String fingerprint : fingerprints)
+		{
+			Map<String, Object> row = getConnection().executeCypherQuery(String.format("MATCH (ca:%s { fp: {fp} }) RETURN id(ca) AS id ORDER BY id LIMIT 1", LABEL_CA),
+					params("fp", fingerprint)).iterator().next();
+			Map<String, Object> params = params("fp", fingerprint, "keep", row.get("id"));
+			runInBatches(String.format("START keep=node({keep}) MATCH (domain)-[r:SIGNEDBY]->(duplicate:%s { fp: {fp} }) WHERE duplicate <> keep "
+					+ "WITH keep, domain, r LIMIT {limit} CREATE (domain)-[:SIGNEDBY]->(keep) DELETE r RETURN count(*) AS count", LABEL_CA), params);
+			runInBatches(String.format("START keep=node({keep}) MATCH (duplicate:%s { fp: {fp} }) WHERE duplicate <> keep AND NOT ()-[:SIGNEDBY]->(duplicate) "
+					+ "WITH duplicate LIMIT {limit} DELETE duplicate RETURN count(*) AS count", LABEL_CA), params);
+		}
 	}
 	
 	@Override
@@ -40,17 +200,32 @@ public class Neo4jDataController extends AbstractDataController<Neo4jQueryWrappe
 	{
 		// cypher is more suited for this simple task
 		Set<String> result = new CustomOrderSet<String>();
-		for(Map<String, Object> row : getConnection().executeCypherQuery("MATCH (tld)-[:INCLUDES]->(domain) RETURN tld.tld"))
+		for(Map<String, Object> row : getConnection().executeCypherQuery(String.format("MATCH (tld:%s) RETURN tld.tld AS tld", LABEL_TLD)))
 		{
-			result.add((String) row.get("tld")); // TODO: untested
+			result.add((String) row.get("tld"));
 		}
 		return result;
 	}
 
+	/**
+	 * Domains signed by the same root CA share its node so domains are counted per CA node
+	 * and each CA node is only converted once.
+	 */
 	@Override
 	public WebsiteToCertDataModel getSetDomainAndIntersections(Set<String> tlds) throws Exception
 	{
 		WebsiteToCertDataModel result = new WebsiteToCertDataModel();
+		try (Transaction tx = getConnection().beginTx()) // nodes can only be read in a transaction
+		{
+			readTLDs(tlds, result);
+			tx.success();
+		}
+		Logger.log(Level.INFO, "Neo4j Cypher plan cache (estimated): " + getConnection().getPlanCacheStats());
+		return result;
+	}
+	
+	private void readTLDs(Set<String> tlds, WebsiteToCertDataModel result) throws Exception
+	{
 		for(String tld : tlds)
 		{
 			result.registerSet(tld);
@@ -61,129 +236,294 @@ public class Neo4jDataController extends AbstractDataController<Neo4jQueryWrappe
 			
 			// cypher version
 			/*
-			for(Map<String, Object> row : getConnection().executeCypherQuery(String.format("MATCH (tld { tld: '%s' })-[:INCLUDES]->(domain)-[:SIGNEDBY]->(ca) RETURN domain.domain, ca", tld)))
+			for(Map<String, Object> row : getConnection().executeCypherQuery(String.format("MATCH (tld:%s { tld: {tld} })-[:INCLUDES]->(domain)-[:SIGNEDBY]->(ca) RETURN ca, count(domain) AS websites", LABEL_TLD), params("tld", tld)))
 			{
-				String domain = (String) row.get("domain");
 				Node caNode = (Node) row.get("ca");
 				
-				DefaultCertObject rootCA = nodeToCert(caNode);
+				DefaultCertObject rootCA = getCertificate(caNode);
 					
 				// register the certificate
 				result.registerSet(rootCA);
 				
 				// and register the current found overlap
-				result.registerOverlap(domain, tld, rootCA);
+				result.registerOverlap(tld, rootCA, ((Number) row.get("websites")).intValue());
 			}
 			*/
 			
 			// traversal version
-			Map<String, Object> tldNodeRow = getConnection().executeCypherQuery(String.format("MATCH (tld { tld: '%s' }) RETURN tld", tld)).iterator().next();
+			Map<String, Object> tldNodeRow = getConnection().executeCypherQuery(String.format("MATCH (tld:%s { tld: {tld} }) RETURN tld", LABEL_TLD), params("tld", tld)).iterator().next();
 			Node tldNode = (Node) tldNodeRow.get("tld");
+			Map<Node, Integer> caNodeToWebsites = new HashMap<Node, Integer>();
 			for(Path position : getConnection().newTraverser()
 					.evaluator(Evaluators.atDepth(2)) // only pass paths which have exactly 3 nodes (2 relationships)
-					.relationships(MyRelations.INCLUDES).relationships(MyRelations.SIGNEDBY)
+					.relationships(MyRelations.INCLUDES, Direction.OUTGOING).relationships(MyRelations.SIGNEDBY, Direction.OUTGOING)
+					.uniqueness(Uniqueness.RELATIONSHIP_GLOBAL) // CA nodes are shared, one path for each domain
 					.breadthFirst() // should make things a bit faster
 					.traverse(tldNode)
 					)
 			{
-				String domain = (String) position.lastRelationship().getStartNode().getProperty("domain");
-				Node caNode = position.endNode();
-				
-				DefaultCertObject rootCA = nodeToCert(caNode);
+				Integer websites = caNodeToWebsites.get(position.endNode());
+				caNodeToWebsites.put(position.endNode(), websites == null ? 1 : websites + 1);
+			}
+			for(Map.Entry<Node, Integer> entry : caNodeToWebsites.entrySet())
+			{
+				DefaultCertObject rootCA = getCertificate(entry.getKey());
 					
 				// register the certificate
 				result.registerSet(rootCA);
 				
 				// and register the current found overlap
-				result.registerOverlap(domain, tld, rootCA);
+				result.registerOverlap(tld, rootCA, entry.getValue());
 			}
 		}
-		return result;
 	}
 	
 	@Override
-	public boolean store(URL website, List<DefaultCertObject> certificateChain) throws Exception
+	protected boolean doStore(URL website, List<DefaultCertObject> certificateChain) throws Exception
 	{
-		/*
-		 * Traversal framework can not add nodes/relationships so we must use Cypher.
-		 */
-		
 		String domain = website.getHost();
 		String tld = StringUtils.substringAfterLast(domain, ".");
 		
-		// use properties instead of labels (there might be syntax problems if labels are used)
-		if(existsMatch(String.format("MATCH (domain { domain: '%s' }) RETURN domain", domain)))
+		// the check and the write in a single transaction
+		try (Transaction tx = getConnection().beginTx())
 		{
-			throw new DuplicateItemException();
+			if(isStored(domain))
+			{
+				throw new DuplicateItemException();
+			}
+			else // the current domain has not been processed (stored) yet
+			{
+				storeWebsite(domain, tld, certificateChain.get(certificateChain.size() - 1));
+				tx.success();
+				return true;
+			}
 		}
-		else // the current domain has not been processed (stored) yet
+	}
+	
+	/**
+	 * Stores the websites in transactions of up to {@link #getStoreBatchSize()} websites,
+	 * with the same statements as {@link #doStore(URL, List)}. If a transaction fails,
+	 * all websites of its batch (but the duplicates) fail. A new store may be bulk loaded
+	 * instead, see {@link #batchInsert(String, Map, Collection)}.
+	 */
+	@Override
+	protected BulkStoreResult doStoreAll(Collection<SampleWebsite> websites) throws Exception
+	{
+		BulkStoreResult result = new BulkStoreResult();
+		List<SampleWebsite> batch = new ArrayList<SampleWebsite>();
+		for(SampleWebsite website : websites)
 		{
-			/*
-			 * Create a node designating the currently processed domain (not TLD) and
-			 * connect it to its corresponding TLD node, all in one statement.
-			 */
-			
-			getConnection().executeCypherQuery(String.format("MATCH (tld { tld: '%s' }) CREATE UNIQUE (tld)-[:INCLUDES]-(domain { domain: '%s' })", tld, domain));
-			
-			/*
-			 * Create a node designating the currently processed root CA and
-			 * connect it to its corresponding domain node, all in one statement.
-			 */
-			DefaultCertObject rootCA = certificateChain.get(certificateChain.size() - 1);
-			getConnection().executeCypherQuery(String.format("MATCH (domain { domain: '%s' }) CREATE UNIQUE (domain)-[:SIGNEDBY]-(ca { %s })", domain, caToCypherPropList(rootCA)));
-			
-			return true;
+			batch.add(website);
+			if(batch.size() == storeBatchSize)
+			{
+				storeBatch(batch, result);
+				batch.clear();
+			}
+		}
+		if(!batch.isEmpty())
+		{
+			storeBatch(batch, result);
 		}
+		return result;
 	}
 	
-	private String caToCypherPropList(DefaultCertObject cert)
+	private void storeBatch(List<SampleWebsite> batch, BulkStoreResult result)
 	{
-		StringBuilder sb = new StringBuilder();
-		
-		sb.append("cn:'");
-		sb.append(cert.getCommonName());
-		sb.append("',");
-		
-		sb.append("on:'");
-		sb.append(cert.getOrganizationName());
-		sb.append("',");
-		
-		sb.append("ou:'");
-		sb.append(cert.getOrganizationUnit());
-		sb.append("',");
-		
-		sb.append("pka:'");
-		sb.append(cert.getPubKeyAlg());
-		sb.append("',");
-		
-		sb.append("ver:'");
-		sb.append(cert.getVersion());
-		
-		sb.append('\'');
-		return sb.toString();
+		List<SampleWebsite> stored = new ArrayList<SampleWebsite>(batch.size());
+		List<SampleWebsite> duplicates = new ArrayList<SampleWebsite>();
+		try (Transaction tx = getConnection().beginTx())
+		{
+			for(SampleWebsite website : batch)
+			{
+				// also sees the websites stored earlier in this transaction
+				if(isStored(website.getDomain()))
+				{
+					duplicates.add(website);
+				}
+				else
+				{
+					storeWebsite(website.getDomain(), website.getTLD(), website.getRootCA());
+					stored.add(website);
+				}
+			}
+			tx.success();
+		}
+		catch (RuntimeException e)
+		{
+			// rolled back, including the website that failed and those not even tried
+			Logger.logThrowable("Could not store a batch of websites: ", e);
+			result.getDuplicates().addAll(duplicates);
+			for(SampleWebsite website : batch)
+			{
+				if(!duplicates.contains(website))
+				{
+					result.getFailed().add(website);
+				}
+			}
+			return;
+		}
+		result.getDuplicates().addAll(duplicates);
+		result.getStored().addAll(stored);
+	}
+	
+	/**
+	 * Bulk loads websites into a new store, for initial loads before the store is opened.
+	 * Writes the same graph as {@link #storeWebsite(String, String, DefaultCertObject)}
+	 * but nothing is checked, apart from duplicates among the given websites. Indexes
+	 * and constraints are created when a controller is initialized on the store.
+	 * 
+	 * <p>Library only, the application itself never calls it: the web application opens
+	 * its store as soon as it connects, so it can't be bulk loaded from there. Call it from
+	 * a loader program before the application is deployed on the store.</p>
+	 * 
+	 * @see Neo4jQueryWrapper#batchInsert(String, Map, Neo4jQueryWrapper.BatchInsertion)
+	 * @throws IllegalStateException if the store already exists
+	 */
+	public static BulkStoreResult batchInsert(String storePath, Map<String, String> settings, final Collection<SampleWebsite> websites)
+	{
+		final BulkStoreResult result = new BulkStoreResult();
+		Neo4jQueryWrapper.batchInsert(storePath, settings, new Neo4jQueryWrapper.BatchInsertion()
+		{
+			@Override
+			public void insert(BatchInserter inserter)
+			{
+				Map<String, Long> tldToNode = new HashMap<String, Long>();
+				Map<String, Long> fingerprintToCANode = new HashMap<String, Long>();
+				Set<String> domains = new HashSet<String>();
+				for(SampleWebsite website : websites)
+				{
+					if(!domains.add(website.getDomain()))
+					{
+						result.getDuplicates().add(website);
+					}
+					else
+					{
+						Long tldNode = tldToNode.get(website.getTLD());
+						if(tldNode == null)
+						{
+							tldNode = inserter.createNode(params("tld", website.getTLD()), DynamicLabel.label(LABEL_TLD));
+							tldToNode.put(website.getTLD(), tldNode);
+						}
+						long domainNode = inserter.createNode(params("domain", website.getDomain()), DynamicLabel.label(LABEL_DOMAIN));
+						Long caNode = fingerprintToCANode.get(website.getRootCA().getFingerprint());
+						if(caNode == null)
+						{
+							caNode = inserter.createNode(caToProperties(website.getRootCA()), DynamicLabel.label(LABEL_CA));
+							fingerprintToCANode.put(website.getRootCA().getFingerprint(), caNode);
+						}
+						inserter.createRelationship(tldNode, domainNode, MyRelations.INCLUDES, Collections.<String, Object>emptyMap());
+						inserter.createRelationship(domainNode, caNode, MyRelations.SIGNEDBY, Collections.<String, Object>emptyMap());
+						result.getStored().add(website);
+					}
+				}
+			}
+		});
+		return result;
+	}
+	
+	/**
+	 * Must be called in a transaction.
+	 */
+	private boolean isStored(String domain)
+	{
+		return existsMatch(String.format("MATCH (domain:%s { domain: {domain} }) RETURN domain", LABEL_DOMAIN), params("domain", domain));
+	}
+	
+	/**
+	 * Creates a node of the domain and connects it to the TLD and root CA nodes (created
+	 * if this is the first domain of the TLD or of the root CA), all in one statement. Must
+	 * be called in a transaction.
+	 */
+	private void storeWebsite(String domain, String tld, DefaultCertObject rootCA)
+	{
+		getConnection().executeCypherQuery(String.format("MERGE (tld:%s { tld: {tld} }) MERGE (ca:%s { fp: {fp} }) ON CREATE SET ca = {ca} "
+				+ "CREATE (tld)-[:INCLUDES]->(domain:%s { domain: {domain} })-[:SIGNEDBY]->(ca)", LABEL_TLD, LABEL_CA, LABEL_DOMAIN),
+				params("tld", tld, "domain", domain, "fp", rootCA.getFingerprint(), "ca", caToProperties(rootCA)));
+	}
+	
+	/**
+	 * Null values are left out, Neo4j can not store them.
+	 */
+	private static Map<String, Object> caToProperties(DefaultCertObject cert)
+	{
+		Map<String, Object> result = new HashMap<String, Object>();
+		putIfNotNull(result, "cn", cert.getCommonName());
+		putIfNotNull(result, "on", cert.getOrganizationName());
+		putIfNotNull(result, "ou", cert.getOrganizationUnit());
+		putIfNotNull(result, "pka", cert.getPubKeyAlg());
+		result.put("ver", String.valueOf(cert.getVersion())); // a string for compatibility with existing nodes
+		result.put("fp", cert.getFingerprint());
+		return result;
+	}
+	
+	private static void putIfNotNull(Map<String, Object> map, String key, Object value)
+	{
+		if(value != null)
+		{
+			map.put(key, value);
+		}
+	}
+	
+	/**
+	 * CA nodes are shared by many domains so they are looked up in {@link CertificateCache}
+	 * first.
+	 */
+	private DefaultCertObject getCertificate(final Node node) throws Exception
+	{
+		return CertificateCache.getShared().get((String) node.getProperty("fp"), DefaultCertObject.class, new Callable<DefaultCertObject>()
+		{
+			@Override
+			public DefaultCertObject call()
+			{
+				return nodeToCert(node);
+			}
+		});
 	}
 	
 	private DefaultCertObject nodeToCert(Node node)
 	{
 		DefaultCertObject result = new DefaultCertObject();
-		result.setCommonName((String) node.getProperty("cn"));
-		result.setOrganizationName((String) node.getProperty("on"));
-		result.setOrganizationUnit((String) node.getProperty("ou"));
-		result.setPubKeyAlg((String) node.getProperty("pka"));
+		result.setCommonName(getStringProperty(node, "cn"));
+		result.setOrganizationName(getStringProperty(node, "on"));
+		result.setOrganizationUnit(getStringProperty(node, "ou"));
+		result.setPubKeyAlg(getStringProperty(node, "pka"));
 		result.setVersion(Integer.parseInt((String) node.getProperty("ver")));
 		return result;
 	}
 	
-	private boolean existsMatch(String query)
+	/**
+	 * CA nodes used to be created with nulls written as 'null' literals.
+	 */
+	private static String getStringProperty(Node node, String key)
 	{
-		return getConnection().executeCypherQuery(query).iterator().hasNext();
+		String result = (String) node.getProperty(key, null);
+		return "null".equals(result) ? null : result;
+	}
+	
+	private boolean existsMatch(String query, Map<String, Object> params)
+	{
+		return getConnection().executeCypherQuery(query, params).iterator().hasNext();
+	}
+	
+	/**
+	 * @param namesAndValues parameter names, each followed by its value
+	 * @return a modifiable map of Cypher query parameters
+	 */
+	private static Map<String, Object> params(Object... namesAndValues)
+	{
+		Map<String, Object> result = new HashMap<String, Object>();
+		for(int i = 0; i < namesAndValues.length; i += 2)
+		{
+			result.put((String) namesAndValues[i], namesAndValues[i + 1]);
+		}
+		return result;
 	}
 	
 	//----------------------------------------------------------------
 	// INHERITED MASSIVE MANIPULATION ROUTINES
 	
 	@Override
-	public void clearDatabase()
+	protected void doClearDatabase()
 	{
 		// deletes all nodes and relationships - cypher is more suited for this
 		getConnection().executeCypherQuery("MATCH (n) OPTIONAL MATCH (n)-[r]-() DELETE n,r");
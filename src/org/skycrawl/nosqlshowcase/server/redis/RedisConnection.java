@@ -3,8 +3,11 @@ package org.skycrawl.nosqlshowcase.server.redis;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.skycrawl.nosqlshowcase.server.redis.controller.RedisDataController;
 import org.skycrawl.nosqlshowcase.server.root.common.db.AbstractDatabaseConnection;
+import org.skycrawl.nosqlshowcase.server.root.common.db.PoolSettings;
+import org.skycrawl.nosqlshowcase.server.root.common.db.PoolUtilization;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
@@ -32,8 +35,18 @@ public class RedisConnection extends AbstractDatabaseConnection<JedisPool, Redis
 	@Override
 	protected JedisPool doConnect(String hostname, int port) throws Exception
 	{
-		// getConnection().initPool(poolConfig, factory);
-		return new JedisPool(new JedisPoolConfig(), hostname);
+		PoolSettings settings = getPoolSettings();
+		JedisPoolConfig poolConfig = new JedisPoolConfig();
+		poolConfig.setMaxTotal(settings.getMaxConnections());
+		poolConfig.setMaxIdle(settings.getMaxConnections());
+		poolConfig.setMinIdle(settings.getMinIdleConnections());
+		poolConfig.setMaxWaitMillis(settings.getMaxWaitMillis());
+		poolConfig.setMinEvictableIdleTimeMillis(settings.getIdleTimeoutMillis());
+		poolConfig.setTimeBetweenEvictionRunsMillis(settings.getEvictionIntervalMillis());
+		poolConfig.setTestWhileIdle(true);
+		
+		// Jedis uses the same timeout to connect and to read
+		return new MeteredJedisPool(poolConfig, hostname, port, Math.max(settings.getConnectTimeoutMillis(), settings.getSocketTimeoutMillis()));
 	}
 	
 	@Override
@@ -60,6 +73,12 @@ public class RedisConnection extends AbstractDatabaseConnection<JedisPool, Redis
 		}
 	}
 	
+	@Override
+	public PoolUtilization getPoolUtilization()
+	{
+		return ((MeteredJedisPool) getConnection()).getUtilization();
+	}
+	
 	@Override
 	protected boolean isAlive()
 	{
@@ -75,4 +94,25 @@ public class RedisConnection extends AbstractDatabaseConnection<JedisPool, Redis
 	{
 		getConnection().destroy();
 	}
+	
+	/**
+	 * This version of Jedis doesn't expose pool statistics.
+	 */
+	private static class MeteredJedisPool extends JedisPool
+	{
+		public MeteredJedisPool(GenericObjectPoolConfig poolConfig, String host, int port, int timeout)
+		{
+			super(poolConfig, host, port, timeout);
+		}
+		
+		public PoolUtilization getUtilization()
+		{
+			return new PoolUtilization(
+					internalPool.getNumActive() + internalPool.getNumIdle(),
+					internalPool.getNumActive(),
+					internalPool.getMaxTotal(),
+					internalPool.getNumWaiters()
+			);
+		}
+	}
 }
\ No newline at end of file
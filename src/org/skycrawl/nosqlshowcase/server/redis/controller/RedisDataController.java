@@ -1,20 +1,35 @@
 package org.skycrawl.nosqlshowcase.server.redis.controller;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.lang.StringUtils;
+import org.skycrawl.nosqlshowcase.server.Logger;
 import org.skycrawl.nosqlshowcase.server.root.common.db.AbstractDataController;
+import org.skycrawl.nosqlshowcase.server.root.common.db.BulkStoreResult;
+import org.skycrawl.nosqlshowcase.server.root.common.db.CertificateCache;
 import org.skycrawl.nosqlshowcase.server.root.common.exceptions.DuplicateItemException;
+import org.skycrawl.nosqlshowcase.server.root.common.model.CertFingerprint;
 import org.skycrawl.nosqlshowcase.server.root.common.model.WebsiteToCertDataModel;
 import org.skycrawl.nosqlshowcase.server.root.common.sample.DefaultCertObject;
+import org.skycrawl.nosqlshowcase.server.root.common.sample.SampleWebsite;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisException;
 
 public class RedisDataController extends AbstractDataController<JedisPool>
 {
@@ -60,15 +75,103 @@ public class RedisDataController extends AbstractDataController<JedisPool>
 	// getConnection().sort("key");
 	
 	private static final String key_tlds = "TLDs"; // maps to a sorted set of TLDs
+	private static final String key_ca_key_format = "CAKeyFormat"; // present once root CAs are keyed by fingerprint
+	private static final String ca_key_format_fingerprint = "fingerprint";
+	
+	/**
+	 * Default maximum number of commands (or websites, when storing) sent in a single
+	 * pipelined round trip.
+	 */
+	public static final int DEFAULT_PIPELINE_BATCH_SIZE = 1000;
+	
+	/*
+	 * Read path settings.
+	 */
+	private boolean pipelinedReads;
+	private int pipelineBatchSize;
 	
 	public RedisDataController(JedisPool connection)
 	{
 		super(connection);
+		
+		this.pipelinedReads = true;
+		this.pipelineBatchSize = DEFAULT_PIPELINE_BATCH_SIZE;
+	}
+	
+	public boolean isPipelinedReads()
+	{
+		return this.pipelinedReads;
+	}
+
+	/**
+	 * @param pipelinedReads whether {@link #getSetDomainAndIntersections(Set)} should fetch
+	 * data in a few batched round trips instead of one round trip per key
+	 */
+	public void setPipelinedReads(boolean pipelinedReads)
+	{
+		this.pipelinedReads = pipelinedReads;
+	}
+
+	public int getPipelineBatchSize()
+	{
+		return this.pipelineBatchSize;
+	}
+
+	public void setPipelineBatchSize(int pipelineBatchSize)
+	{
+		if(pipelineBatchSize < 1)
+		{
+			throw new IllegalArgumentException("Pipeline batch size must be positive.");
+		}
+		this.pipelineBatchSize = pipelineBatchSize;
 	}
 	
 	@Override
 	public void init() throws Exception
 	{
+		migrateLegacyCAKeys();
+	}
+	
+	/**
+	 * Root CAs used to be keyed by their 32-bit hash code which is prone to collisions.
+	 * Such hashes are copied under their {@link CertFingerprint fingerprint}, domains are
+	 * linked to the copies and the legacy keys deleted. Once done (or when the database is
+	 * cleared), a marker key is set so that the domains are not scanned again.
+	 */
+	private void migrateLegacyCAKeys()
+	{
+		try (Jedis jedis = getConnection().getResource())
+		{
+			if(!jedis.exists(key_ca_key_format))
+			{
+				Map<String, String> legacyToFingerprint = new HashMap<String, String>();
+				for(String tld : jedis.zrange(key_tlds, 0, -1))
+				{
+					for(String domain : jedis.smembers(tld))
+					{
+						String rootCAKey = jedis.get(domain);
+						if((rootCAKey != null) && !CertFingerprint.isFingerprint(rootCAKey))
+						{
+							String fingerprint = legacyToFingerprint.get(rootCAKey);
+							if(fingerprint == null)
+							{
+								Map<String, String> rootCA = jedis.hgetAll(rootCAKey);
+								fingerprint = dbToCert(rootCA).getFingerprint();
+								jedis.hmset(fingerprint, rootCA);
+								legacyToFingerprint.put(rootCAKey, fingerprint);
+							}
+							jedis.set(domain, fingerprint);
+						}
+					}
+				}
+				if(!legacyToFingerprint.isEmpty())
+				{
+					Set<String> legacyKeys = legacyToFingerprint.keySet();
+					jedis.del(legacyKeys.toArray(new String[legacyKeys.size()]));
+				}
+				jedis.set(key_ca_key_format, ca_key_format_fingerprint);
+			}
+		}
 	}
 	
 	@Override
@@ -83,6 +186,18 @@ public class RedisDataController extends AbstractDataController<JedisPool>
 
 	@Override
 	public WebsiteToCertDataModel getSetDomainAndIntersections(Set<String> tlds) throws Exception
+	{
+		if(pipelinedReads)
+		{
+			return getSetDomainAndIntersectionsPipelined(tlds);
+		}
+		else
+		{
+			return getSetDomainAndIntersectionsSequential(tlds);
+		}
+	}
+	
+	private WebsiteToCertDataModel getSetDomainAndIntersectionsSequential(Set<String> tlds) throws Exception
 	{
 		WebsiteToCertDataModel result = new WebsiteToCertDataModel();
 		try (Jedis jedis = getConnection().getResource())
@@ -93,14 +208,100 @@ public class RedisDataController extends AbstractDataController<JedisPool>
 				result.registerSet(tld);
 				for(String domain : jedis.smembers(tld))
 				{
-					String rootCAKey = jedis.get(domain);
-					DefaultCertObject rootCA = dbToCert(jedis.hgetAll(rootCAKey));
+					final String rootCAKey = jedis.get(domain);
+					DefaultCertObject rootCA = CertificateCache.getShared().get(rootCAKey, DefaultCertObject.class, new Callable<DefaultCertObject>()
+					{
+						@Override
+						public DefaultCertObject call()
+						{
+							return dbToCert(jedis.hgetAll(rootCAKey)); // resource variables are implicitly final
+						}
+					});
 					
 					// register the certificate
 					result.registerSet(rootCA);
 					
 					// and register the current found overlap
-					result.registerOverlap(domain, tld, rootCA);
+					result.registerOverlap(tld, rootCA);
+				}
+			}
+			return result;
+		}
+	}
+	
+	/**
+	 * Same result as {@link #getSetDomainAndIntersectionsSequential(Set)} but instead of
+	 * one round trip per key, all data is fetched in three pipelined phases:
+	 * <ol>
+	 * <li> domains of all the given TLDs,
+	 * <li> root CA keys of all the found domains,
+	 * <li> root CA hashes, each distinct one only once and only if it is not in {@link CertificateCache}.
+	 * </ol>
+	 * The last two phases are split into batches of {@link #getPipelineBatchSize()} commands.
+	 */
+	private WebsiteToCertDataModel getSetDomainAndIntersectionsPipelined(Set<String> tlds)
+	{
+		try (Jedis jedis = getConnection().getResource())
+		{
+			// first fetch domains of all TLDs
+			Map<String, Response<Set<String>>> tldToDomainsResponse = new LinkedHashMap<String, Response<Set<String>>>();
+			Pipeline pipeline = jedis.pipelined();
+			for(String tld : tlds)
+			{
+				tldToDomainsResponse.put(tld, pipeline.smembers(tld));
+			}
+			pipeline.sync();
+			
+			Map<String, Set<String>> tldToDomains = new LinkedHashMap<String, Set<String>>();
+			List<String> allDomains = new ArrayList<String>();
+			for(Entry<String, Response<Set<String>>> entry : tldToDomainsResponse.entrySet())
+			{
+				Set<String> domains = entry.getValue().get();
+				tldToDomains.put(entry.getKey(), domains);
+				allDomains.addAll(domains);
+			}
+			
+			// then root CA keys of all domains
+			Map<String, String> domainToRootCAKey = pipelinedGet(jedis, allDomains);
+			
+			// and then only the distinct root CAs that are not cached yet
+			CertificateCache cache = CertificateCache.getShared();
+			Map<String, DefaultCertObject> rootCAKeyToCert = new HashMap<String, DefaultCertObject>();
+			Set<String> uncachedRootCAKeys = new LinkedHashSet<String>();
+			for(String rootCAKey : domainToRootCAKey.values())
+			{
+				DefaultCertObject rootCA = cache.getIfPresent(rootCAKey, DefaultCertObject.class);
+				if(rootCA != null)
+				{
+					rootCAKeyToCert.put(rootCAKey, rootCA);
+				}
+				else
+				{
+					uncachedRootCAKeys.add(rootCAKey);
+				}
+			}
+			for(Entry<String, Map<String, String>> entry : pipelinedHgetAll(jedis, uncachedRootCAKeys).entrySet())
+			{
+				DefaultCertObject rootCA = dbToCert(entry.getValue());
+				cache.put(entry.getKey(), DefaultCertObject.class, rootCA);
+				rootCAKeyToCert.put(entry.getKey(), rootCA);
+			}
+			
+			// finally, turn it all into Venn data
+			WebsiteToCertDataModel result = new WebsiteToCertDataModel();
+			for(Entry<String, Set<String>> entry : tldToDomains.entrySet())
+			{
+				String tld = entry.getKey();
+				result.registerSet(tld);
+				for(String domain : entry.getValue())
+				{
+					DefaultCertObject rootCA = rootCAKeyToCert.get(domainToRootCAKey.get(domain));
+					
+					// register the certificate
+					result.registerSet(rootCA);
+					
+					// and register the current found overlap
+					result.registerOverlap(tld, rootCA);
 				}
 			}
 			return result;
@@ -108,14 +309,14 @@ public class RedisDataController extends AbstractDataController<JedisPool>
 	}
 	
 	@Override
-	public boolean store(URL website, List<DefaultCertObject> certificateChain) throws DuplicateItemException, Exception
+	protected boolean doStore(URL website, List<DefaultCertObject> certificateChain) throws DuplicateItemException, Exception
 	{
 		String domain = website.getHost();
 		String tld = StringUtils.substringAfterLast(domain, ".");
 		try (Jedis jedis = getConnection().getResource())
 		{
 			DefaultCertObject rootCA = certificateChain.get(certificateChain.size() - 1);
-			String rootCAKey = String.valueOf(rootCA.hashCode());
+			String rootCAKey = rootCA.getFingerprint();
 			boolean rootCAExists = jedis.exists(rootCAKey);
 			
 			// first some checks
@@ -148,17 +349,211 @@ public class RedisDataController extends AbstractDataController<JedisPool>
 		}
 	}
 
+	/**
+	 * Stores the websites in batches of {@link #getPipelineBatchSize()}, each batch taking
+	 * exactly two pipelined round trips: one for duplicate and root CA existence checks and
+	 * one for a transaction with all the writes. A batch that fails does not affect the others.
+	 */
+	@Override
+	protected BulkStoreResult doStoreAll(Collection<SampleWebsite> websites)
+	{
+		BulkStoreResult result = new BulkStoreResult();
+		List<SampleWebsite> batch = new ArrayList<SampleWebsite>();
+		for(SampleWebsite website : websites)
+		{
+			batch.add(website);
+			if(batch.size() == pipelineBatchSize)
+			{
+				storeBatch(batch, result);
+				batch.clear();
+			}
+		}
+		if(!batch.isEmpty())
+		{
+			storeBatch(batch, result);
+		}
+		return result;
+	}
+	
+	/**
+	 * Each batch takes a connection of its own since a failure may leave it broken. If the
+	 * transaction fails, none of the batch is stored.
+	 */
+	private void storeBatch(List<SampleWebsite> batch, BulkStoreResult result)
+	{
+		List<SampleWebsite> duplicates = new ArrayList<SampleWebsite>();
+		try (Jedis jedis = getConnection().getResource())
+		{
+			result.getStored().addAll(storeBatch(jedis, batch, duplicates));
+		}
+		catch (JedisException e)
+		{
+			Logger.logThrowable("Could not store a batch of websites: ", e);
+			for(SampleWebsite website : batch)
+			{
+				if(!duplicates.contains(website))
+				{
+					result.getFailed().add(website);
+				}
+			}
+		}
+		result.getDuplicates().addAll(duplicates);
+	}
+	
+	/**
+	 * @param duplicates where websites already stored (or repeated in the batch) are put
+	 * @return the stored websites
+	 */
+	private List<SampleWebsite> storeBatch(Jedis jedis, List<SampleWebsite> batch, List<SampleWebsite> duplicates)
+	{
+		// first round trip: all checks at once
+		Pipeline pipeline = jedis.pipelined();
+		List<Response<Boolean>> isDuplicate = new ArrayList<Response<Boolean>>(batch.size());
+		Map<String, Response<Boolean>> rootCAExists = new HashMap<String, Response<Boolean>>();
+		for(SampleWebsite website : batch)
+		{
+			isDuplicate.add(pipeline.sismember(website.getTLD(), website.getDomain()));
+			String rootCAKey = website.getRootCA().getFingerprint();
+			if(!rootCAExists.containsKey(rootCAKey))
+			{
+				rootCAExists.put(rootCAKey, pipeline.exists(rootCAKey));
+			}
+		}
+		pipeline.sync();
+		
+		// second round trip: all writes at once, all or nothing - don't break consistency
+		List<SampleWebsite> toStore = new ArrayList<SampleWebsite>(batch.size());
+		Set<String> domainsInBatch = new HashSet<String>();
+		for(int i = 0; i < batch.size(); i++)
+		{
+			SampleWebsite website = batch.get(i);
+			if(isDuplicate.get(i).get() || !domainsInBatch.add(website.getDomain()))
+			{
+				duplicates.add(website);
+			}
+			else
+			{
+				toStore.add(website);
+			}
+		}
+		if(!toStore.isEmpty())
+		{
+			Set<String> storedRootCAKeys = new HashSet<String>();
+			pipeline = jedis.pipelined();
+			pipeline.multi();
+			for(SampleWebsite website : toStore)
+			{
+				DefaultCertObject rootCA = website.getRootCA();
+				String rootCAKey = rootCA.getFingerprint();
+				
+				// the same layout as in {@link #doStore(URL, List)}
+				pipeline.zadd(key_tlds, 1, website.getTLD());
+				pipeline.sadd(website.getTLD(), website.getDomain());
+				if(!rootCAExists.get(rootCAKey).get() && storedRootCAKeys.add(rootCAKey))
+				{
+					pipeline.hmset(rootCAKey, certToDB(rootCA));
+				}
+				pipeline.set(website.getDomain(), rootCAKey);
+			}
+			pipeline.exec();
+			pipeline.sync();
+		}
+		return toStore;
+	}
+
 	//----------------------------------------------------------------
 	// INHERITED MASSIVE MANIPULATION ROUTINES
 	
 	@Override
-	public void clearDatabase()
+	protected void doClearDatabase()
 	{
 		try (Jedis jedis = getConnection().getResource())
 		{
 			// jedis.flushDB(); // just the currently selected DB
 			jedis.flushAll(); // everything
+			jedis.set(key_ca_key_format, ca_key_format_fingerprint); // nothing to migrate
+		}
+	}
+	
+	//----------------------------------------------------------------
+	// PIPELINED BATCH ROUTINES
+	
+	/**
+	 * Fetches string values of all the given keys in batches of {@link #getPipelineBatchSize()}.
+	 * 
+	 * @throws IllegalStateException if any of the keys doesn't exist
+	 */
+	private Map<String, String> pipelinedGet(Jedis jedis, Collection<String> keys)
+	{
+		Map<String, String> result = new HashMap<String, String>();
+		Map<String, Response<String>> batch = new LinkedHashMap<String, Response<String>>();
+		Pipeline pipeline = jedis.pipelined();
+		for(String key : keys)
+		{
+			batch.put(key, pipeline.get(key));
+			if(batch.size() == pipelineBatchSize)
+			{
+				pipeline.sync();
+				collectStrings(batch, result);
+				pipeline = jedis.pipelined();
+			}
+		}
+		pipeline.sync();
+		collectStrings(batch, result);
+		return result;
+	}
+	
+	/**
+	 * Fetches hashes of all the given keys in batches of {@link #getPipelineBatchSize()}.
+	 * 
+	 * @throws IllegalStateException if any of the keys doesn't exist
+	 */
+	private Map<String, Map<String, String>> pipelinedHgetAll(Jedis jedis, Collection<String> keys)
+	{
+		Map<String, Map<String, String>> result = new HashMap<String, Map<String, String>>();
+		Map<String, Response<Map<String, String>>> batch = new LinkedHashMap<String, Response<Map<String, String>>>();
+		Pipeline pipeline = jedis.pipelined();
+		for(String key : keys)
+		{
+			batch.put(key, pipeline.hgetAll(key));
+			if(batch.size() == pipelineBatchSize)
+			{
+				pipeline.sync();
+				collectHashes(batch, result);
+				pipeline = jedis.pipelined();
+			}
+		}
+		pipeline.sync();
+		collectHashes(batch, result);
+		return result;
+	}
+	
+	private static void collectStrings(Map<String, Response<String>> batch, Map<String, String> to)
+	{
+		for(Entry<String, Response<String>> entry : batch.entrySet())
+		{
+			String value = entry.getValue().get();
+			if(value == null)
+			{
+				throw new IllegalStateException("No value found for key: " + entry.getKey());
+			}
+			to.put(entry.getKey(), value);
+		}
+		batch.clear();
+	}
+	
+	private static void collectHashes(Map<String, Response<Map<String, String>>> batch, Map<String, Map<String, String>> to)
+	{
+		for(Entry<String, Response<Map<String, String>>> entry : batch.entrySet())
+		{
+			Map<String, String> value = entry.getValue().get();
+			if((value == null) || value.isEmpty())
+			{
+				throw new IllegalStateException("No hash found for key: " + entry.getKey());
+			}
+			to.put(entry.getKey(), value);
 		}
+		batch.clear();
 	}
 	
 	//----------------------------------------------------------------
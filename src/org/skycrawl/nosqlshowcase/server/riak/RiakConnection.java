@@ -2,10 +2,13 @@ package org.skycrawl.nosqlshowcase.server.riak;
 
 import org.skycrawl.nosqlshowcase.server.riak.controller.RiakDataController;
 import org.skycrawl.nosqlshowcase.server.root.common.db.AbstractDatabaseConnection;
+import org.skycrawl.nosqlshowcase.server.root.common.db.PoolSettings;
+import org.skycrawl.nosqlshowcase.server.root.common.db.PoolUtilization;
 
 import com.basho.riak.client.IRiakClient;
 import com.basho.riak.client.RiakException;
 import com.basho.riak.client.RiakFactory;
+import com.basho.riak.client.raw.pbc.PBClientConfig;
 
 public class RiakConnection extends AbstractDatabaseConnection<IRiakClient, RiakDataController>
 {
@@ -14,7 +17,17 @@ public class RiakConnection extends AbstractDatabaseConnection<IRiakClient, Riak
 	@Override
 	protected IRiakClient doConnect(String hostname, int port) throws Exception
 	{
-		return RiakFactory.pbcClient(hostname, port);
+		PoolSettings settings = getPoolSettings();
+		return RiakFactory.newClient(new PBClientConfig.Builder()
+				.withHost(hostname)
+				.withPort(port)
+				.withPoolSize(settings.getMaxConnections())
+				.withInitialPoolSize(Math.min(settings.getMinIdleConnections(), settings.getMaxConnections()))
+				.withConnectionTimeoutMillis(settings.getConnectTimeoutMillis())
+				.withRequestTimeoutMillis(settings.getSocketTimeoutMillis())
+				.withIdleConnectionTTLMillis(settings.getIdleTimeoutMillis())
+				.build()
+		);
 	}
 	
 	@Override
@@ -41,6 +54,15 @@ public class RiakConnection extends AbstractDatabaseConnection<IRiakClient, Riak
 		return null;
 	}
 	
+	/**
+	 * The client doesn't expose any pool statistics.
+	 */
+	@Override
+	public PoolUtilization getPoolUtilization()
+	{
+		return new PoolUtilization(PoolUtilization.UNKNOWN, PoolUtilization.UNKNOWN, getPoolSettings().getMaxConnections(), PoolUtilization.UNKNOWN);
+	}
+	
 	@Override
 	protected RiakDataController createDataController(IRiakClient connection)
 	{
@@ -64,6 +86,7 @@ public class RiakConnection extends AbstractDatabaseConnection<IRiakClient, Riak
 	@Override
 	protected void doClose()
 	{
+		getDataController().shutdown();
 		getConnection().shutdown();
 	}
 }
\ No newline at end of file
@@ -1,41 +1,157 @@
 package org.skycrawl.nosqlshowcase.server.riak.controller;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import org.apache.commons.lang.StringUtils;
+import org.skycrawl.nosqlshowcase.server.Config;
 import org.skycrawl.nosqlshowcase.server.Logger;
 import org.skycrawl.nosqlshowcase.server.riak.model.AbstractRiakSingleLinkValue;
+import org.skycrawl.nosqlshowcase.server.riak.model.RiakTLDRegistry;
 import org.skycrawl.nosqlshowcase.server.riak.model.RiakWebsite;
 import org.skycrawl.nosqlshowcase.server.riak.model.RiakX509Cert;
 import org.skycrawl.nosqlshowcase.server.root.common.db.AbstractDataController;
+import org.skycrawl.nosqlshowcase.server.root.common.db.BulkStoreResult;
+import org.skycrawl.nosqlshowcase.server.root.common.db.CertificateCache;
+import org.skycrawl.nosqlshowcase.server.root.common.model.CertFingerprint;
 import org.skycrawl.nosqlshowcase.server.root.common.model.WebsiteToCertDataModel;
 import org.skycrawl.nosqlshowcase.server.root.common.sample.DefaultCertObject;
+import org.skycrawl.nosqlshowcase.server.root.common.sample.SampleWebsite;
 import org.skycrawl.nosqlshowcase.server.root.ui.notifications.MyNotifications;
+import org.skycrawl.nosqlshowcase.server.root.util.CustomOrderSet;
 
 import com.basho.riak.client.IRiakClient;
 import com.basho.riak.client.RiakException;
 import com.basho.riak.client.RiakLink;
 import com.basho.riak.client.bucket.Bucket;
+import com.basho.riak.client.operations.StoreObject;
 import com.basho.riak.client.query.NodeStats;
-import com.google.common.collect.Iterators;
-import com.google.common.collect.PeekingIterator;
+import com.basho.riak.client.query.StreamingOperation;
+import com.basho.riak.client.query.indexes.BinIndex;
+import com.basho.riak.client.query.indexes.BucketIndex;
+import com.basho.riak.client.query.indexes.FetchIndex;
+import com.basho.riak.client.query.indexes.IndexEntry;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 public class RiakDataController extends AbstractDataController<IRiakClient>
 {
 	/*
-	 * All buckets this Riak mini-app uses.
+	 * All buckets this Riak mini-app uses. Websites are indexed by their TLD and root CA,
+	 * see {@link RiakWebsite#INDEX_TLD_CA}. Secondary indexes need the LevelDB backend.
 	 */
 	public static final String BUCKET_NAME_CERTIFICATES = "certificates";
+	public static final String BUCKET_NAME_WEBSITES = "websites";
+	public static final String BUCKET_NAME_REGISTRY = "registry";
+	
+	/**
+	 * Key of the {@link RiakTLDRegistry} in {@link #BUCKET_NAME_REGISTRY}.
+	 */
+	private static final String KEY_TLD_REGISTRY = "tlds";
+	
+	/**
+	 * Marker in {@link #BUCKET_NAME_REGISTRY}, present once all websites carry their root CA key.
+	 */
+	private static final String KEY_ROOT_CA_MARKER = "websitesWithRootCA";
+	
+	/**
+	 * Marker in {@link #BUCKET_NAME_REGISTRY}, present once websites were moved out of the
+	 * legacy TLD buckets.
+	 */
+	private static final String KEY_TLD_BUCKETS_MARKER = "websitesInOneBucket";
+	
+	/**
+	 * Marker in {@link #BUCKET_NAME_REGISTRY}, present once all certificates are keyed by
+	 * their fingerprint.
+	 */
+	private static final String KEY_CERT_KEYS_MARKER = "certsByFingerprint";
+	
+	/**
+	 * Maximum number of websites stored concurrently by {@link #doStoreAll(Collection)}, by
+	 * all calls together.
+	 */
+	private static final int STORE_PARALLELISM = 8;
+	
+	/**
+	 * Maximum number of certificates written concurrently, by all stores together.
+	 */
+	private static final int CHAIN_WRITE_PARALLELISM = 16;
 	
 	// private DomainBucket<RiakX509Cert> bucket_certs;
 	private Bucket bucket_certs;
+	private Bucket bucket_websites;
+	private Bucket bucket_registry;
+	
+	/*
+	 * TLDs known to be in the registry, so that it need not be updated on every store.
+	 */
+	private final Set<String> registeredTLDs;
+	
+	/*
+	 * Keys of certificates known to be stored. Certificates are keyed by content so they
+	 * need not be stored again. Bounded, forgetting a key only costs a redundant write.
+	 */
+	private final Set<String> storedCertKeys;
+	
+	private final ConcurrentMap<String, Bucket> buckets;
+	private final ExecutorService storeExecutor;
+	private final ExecutorService chainWriteExecutor;
+	
+	/*
+	 * Number of replicas that must acknowledge a write or null for the bucket's default.
+	 */
+	private Integer writeQuorum;
 	
 	public RiakDataController(IRiakClient connection)
 	{
 		super(connection);
+		
+		this.registeredTLDs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		this.storedCertKeys = Collections.newSetFromMap(CacheBuilder.newBuilder()
+				.maximumSize(CertificateCache.DEFAULT_MAXIMUM_SIZE)
+				.<String, Boolean>build()
+				.asMap());
+		this.buckets = new ConcurrentHashMap<String, Bucket>();
+		this.storeExecutor = Executors.newFixedThreadPool(STORE_PARALLELISM, new ThreadFactoryBuilder()
+				.setNameFormat("riak-store-%d")
+				.setDaemon(true)
+				.build());
+		this.chainWriteExecutor = Executors.newFixedThreadPool(CHAIN_WRITE_PARALLELISM, new ThreadFactoryBuilder()
+				.setNameFormat("riak-chain-write-%d")
+				.setDaemon(true)
+				.build());
+		this.writeQuorum = Config.getRiakWriteQuorum();
+	}
+	
+	public Integer getWriteQuorum()
+	{
+		return writeQuorum;
+	}
+	
+	/**
+	 * @param writeQuorum number of replicas that must acknowledge a write or null
+	 * for the bucket's default
+	 */
+	public void setWriteQuorum(Integer writeQuorum)
+	{
+		if((writeQuorum != null) && (writeQuorum < 1))
+		{
+			throw new IllegalArgumentException("Write quorum must be positive.");
+		}
+		this.writeQuorum = writeQuorum;
 	}
 	
 	@Override
@@ -43,32 +159,190 @@ public class RiakDataController extends AbstractDataController<IRiakClient>
 	{
 		// this.bucket_certs = DomainBucket.builder(getBucket("certificates"), RiakX509Cert.class).build();
 		this.bucket_certs = getBucket(BUCKET_NAME_CERTIFICATES);
+		this.bucket_websites = getBucket(BUCKET_NAME_WEBSITES);
+		this.bucket_registry = getConnection().createBucket(BUCKET_NAME_REGISTRY).allowSiblings(true).execute(); // concurrent updates are merged
+		migrateTLDBuckets();
+		migrateLegacyCertKeys();
+		migrateRootCAKeys();
 	}
 	
-	public Iterable<NodeStats> getNodeStats() throws RiakException
+	/**
+	 * Websites stored before their root CA key was recorded get it by walking their chain.
+	 * Only done until it finishes once, see {@link #KEY_ROOT_CA_MARKER}.
+	 */
+	private void migrateRootCAKeys() throws RiakException
 	{
-		return getConnection().stats();
+		if(bucket_registry.fetch(KEY_ROOT_CA_MARKER).execute() == null)
+		{
+			String continuation = null;
+			do
+			{
+				StreamingOperation<IndexEntry> page = queryIndex(bucket_websites, BucketIndex.index, BUCKET_NAME_WEBSITES, continuation);
+				while(page.hasNext())
+				{
+					RiakWebsite website = bucket_websites.fetch(page.next().getObjectKey(), RiakWebsite.class).execute();
+					if(website.getRootCAKey() == null)
+					{
+						try
+						{
+							website.useRootCAKey(linkWalkToRoot(website).toKey());
+						}
+						catch (Exception e)
+						{
+							throw new RiakException(e);
+						}
+						bucket_websites.store(website.toKey(), website).execute();
+					}
+				}
+				continuation = page.hasContinuation() ? page.getContinuation() : null;
+			}
+			while(continuation != null);
+			bucket_registry.store(KEY_ROOT_CA_MARKER, "true").execute();
+		}
 	}
-
-	// ----------------------------------------------------------------
-	// INDIVIDUAL DATA MANIPULATION ROUTINES
-
+	
+	/**
+	 * Websites used to be stored in a bucket per TLD, which could only be found by listing
+	 * all buckets. They are moved into {@link #BUCKET_NAME_WEBSITES} and their TLDs registered.
+	 * Only done until it finishes once, see {@link #KEY_TLD_BUCKETS_MARKER}, so buckets are
+	 * listed just once. Databases that already have a registry were migrated before the
+	 * marker was introduced.
+	 */
 	@SuppressWarnings("deprecation")
-	public Set<String> getAllBucketNames() throws RiakException
+	private void migrateTLDBuckets() throws RiakException
 	{
-		try
+		if(bucket_registry.fetch(KEY_TLD_BUCKETS_MARKER).execute() != null)
 		{
-			return getConnection().listBuckets();
+			return;
 		}
-		catch (Exception e)
+		if(fetchTLDRegistry() == null)
 		{
-			Logger.logThrowable("Could not fetch buckets: ", e);
-			throw new RiakException(e);
+			RiakTLDRegistry registry = new RiakTLDRegistry();
+			for(String bucketName : getConnection().listBuckets())
+			{
+				if(!bucketName.equals(BUCKET_NAME_CERTIFICATES) && !bucketName.equals(BUCKET_NAME_WEBSITES) && !bucketName.equals(BUCKET_NAME_REGISTRY))
+				{
+					Bucket legacyBucket = getBucket(bucketName);
+					for(String domain : legacyBucket.keys())
+					{
+						RiakWebsite website = legacyBucket.fetch(domain, RiakWebsite.class).execute();
+						website.tld = bucketName;
+						bucket_websites.store(website.toKey(), website).execute();
+						legacyBucket.delete(domain).execute();
+					}
+					registry.tlds.add(bucketName);
+				}
+			}
+			bucket_registry.store(KEY_TLD_REGISTRY, registry).withResolver(RiakTLDRegistry.UNION).execute();
 		}
+		bucket_registry.store(KEY_TLD_BUCKETS_MARKER, "true").execute();
 	}
 	
 	/**
-	 * Gets the given bucket. If it does not exist yet, it is created.
+	 * Certificates used to be keyed by their 32-bit hash code which is prone to collisions.
+	 * Such certificates are stored again under their {@link CertFingerprint fingerprint},
+	 * links from other certificates and websites are redirected to the new keys and the
+	 * legacy keys deleted. Websites are only scanned when there is something to migrate.
+	 * Only done until it finishes once, see {@link #KEY_CERT_KEYS_MARKER}, so certificates
+	 * are not listed on every start.
+	 */
+	private void migrateLegacyCertKeys() throws RiakException
+	{
+		if(bucket_registry.fetch(KEY_CERT_KEYS_MARKER).execute() != null)
+		{
+			return;
+		}
+		
+		// first find the legacy certificates
+		Map<String, RiakX509Cert> legacyCerts = new HashMap<String, RiakX509Cert>();
+		String continuation = null;
+		do
+		{
+			StreamingOperation<IndexEntry> page = queryIndex(bucket_certs, BucketIndex.index, BUCKET_NAME_CERTIFICATES, continuation);
+			while(page.hasNext())
+			{
+				String key = page.next().getObjectKey();
+				if(!CertFingerprint.isFingerprint(key))
+				{
+					legacyCerts.put(key, bucket_certs.fetch(key, RiakX509Cert.class).execute());
+				}
+			}
+			continuation = page.hasContinuation() ? page.getContinuation() : null;
+		}
+		while(continuation != null);
+		
+		if(!legacyCerts.isEmpty())
+		{
+			// then store them again, under the new keys and with redirected links
+			for(RiakX509Cert cert : legacyCerts.values())
+			{
+				redirectLink(cert, legacyCerts);
+				bucket_certs.store(cert.toKey(), cert).execute();
+			}
+			
+			// redirect links from websites
+			do
+			{
+				StreamingOperation<IndexEntry> page = queryIndex(bucket_websites, BucketIndex.index, BUCKET_NAME_WEBSITES, continuation);
+				while(page.hasNext())
+				{
+					RiakWebsite website = bucket_websites.fetch(page.next().getObjectKey(), RiakWebsite.class).execute();
+					if(redirectLink(website, legacyCerts))
+					{
+						bucket_websites.store(website.toKey(), website).execute();
+					}
+				}
+				continuation = page.hasContinuation() ? page.getContinuation() : null;
+			}
+			while(continuation != null);
+			
+			// and finally, delete the legacy certificates
+			for(String legacyKey : legacyCerts.keySet())
+			{
+				bucket_certs.delete(legacyKey).execute();
+			}
+		}
+		bucket_registry.store(KEY_CERT_KEYS_MARKER, "true").execute();
+	}
+	
+	/**
+	 * @return whether the value linked to a legacy certificate and was changed
+	 */
+	private static boolean redirectLink(AbstractRiakSingleLinkValue value, Map<String, RiakX509Cert> legacyCerts)
+	{
+		RiakLink link = value.toLink();
+		if((link != null) && legacyCerts.containsKey(link.getKey()))
+		{
+			value.useLink(new RiakLink(BUCKET_NAME_CERTIFICATES, legacyCerts.get(link.getKey()).toKey(), ""));
+			return true;
+		}
+		else
+		{
+			return false;
+		}
+	}
+	
+	public Iterable<NodeStats> getNodeStats() throws RiakException
+	{
+		return getConnection().stats();
+	}
+	
+	/**
+	 * Stops the threads used for storing. To be called when the connection is closed,
+	 * stores in progress are allowed to finish (or fail) on their own.
+	 */
+	public void shutdown()
+	{
+		storeExecutor.shutdown();
+		chainWriteExecutor.shutdown();
+	}
+
+	// ----------------------------------------------------------------
+	// INDIVIDUAL DATA MANIPULATION ROUTINES
+
+	/**
+	 * Gets the given bucket. If it does not exist yet, it is created. Bucket handles are
+	 * cached so this only takes a request the first time.
 	 * 
 	 * @param name
 	 * @return
@@ -76,15 +350,25 @@ public class RiakDataController extends AbstractDataController<IRiakClient>
 	 */
 	public Bucket getBucket(String name) throws RiakException
 	{
-		return getConnection().fetchBucket(name).execute();
+		Bucket result = buckets.get(name);
+		if(result == null)
+		{
+			result = getConnection().fetchBucket(name).execute();
+			buckets.putIfAbsent(name, result);
+		}
+		return result;
 	}
 	
-	public RiakX509Cert linkWalkToRoot(RiakWebsite start) throws RiakException
+	/**
+	 * Follows the links from the given website to its root CA, one request per certificate
+	 * that is not cached. Only needed for websites that don't carry the root CA key.
+	 */
+	public RiakX509Cert linkWalkToRoot(RiakWebsite start) throws Exception
 	{
 		AbstractRiakSingleLinkValue current = start;
 		while(current.toLink() != null)
 		{
-			RiakLink next = current.toLink();
+			final RiakLink next = current.toLink();
 			if(!next.getBucket().equals(BUCKET_NAME_CERTIFICATES))
 			{
 				throw new RiakException(String.format("Invalid link binding. Item with key '%s' contains a link to bucket '%s'. Expected: '%s'.",
@@ -92,20 +376,93 @@ public class RiakDataController extends AbstractDataController<IRiakClient>
 			}
 			else
 			{
-				current = getBucket(next.getBucket()).fetch(next.getKey(), RiakX509Cert.class).execute();
+				current = fetchCertificate(next.getKey());
 			}
 		}
 		return (RiakX509Cert) current;
 	}
 	
+	/**
+	 * Certificates are shared by many websites so they are looked up in {@link CertificateCache}
+	 * first.
+	 */
+	private RiakX509Cert fetchCertificate(final String key) throws Exception
+	{
+		return CertificateCache.getShared().get(key, RiakX509Cert.class, new Callable<RiakX509Cert>()
+		{
+			@Override
+			public RiakX509Cert call() throws RiakException
+			{
+				RiakX509Cert result = bucket_certs.fetch(key, RiakX509Cert.class).execute();
+				if(result == null)
+				{
+					throw new RiakException(String.format("Broken link: no certificate found for key '%s'.", key));
+				}
+				return result;
+			}
+		});
+	}
+	
+	/**
+	 * Reads the TLD registry - a single object.
+	 */
 	@Override
 	public Set<String> getTLDs() throws RiakException
 	{
-		Set<String> tlds = getAllBucketNames();
-		tlds.remove(RiakDataController.BUCKET_NAME_CERTIFICATES);
-		return tlds;
+		Set<String> result = new CustomOrderSet<String>();
+		RiakTLDRegistry registry = fetchTLDRegistry();
+		if(registry != null)
+		{
+			result.addAll(registry.tlds);
+			registeredTLDs.addAll(registry.tlds);
+		}
+		return result;
+	}
+	
+	/**
+	 * @return the registry or null if there is none yet
+	 */
+	private RiakTLDRegistry fetchTLDRegistry() throws RiakException
+	{
+		return bucket_registry.fetch(KEY_TLD_REGISTRY, RiakTLDRegistry.class).withResolver(RiakTLDRegistry.UNION).execute();
+	}
+	
+	/**
+	 * Adds the TLD to the registry unless it is known to be there already.
+	 */
+	private void registerTLD(String tld) throws RiakException
+	{
+		if(!registeredTLDs.contains(tld))
+		{
+			bucket_registry.store(KEY_TLD_REGISTRY, new RiakTLDRegistry())
+				.withMutator(RiakTLDRegistry.adding(tld))
+				.withResolver(RiakTLDRegistry.UNION)
+				.execute();
+			registeredTLDs.add(tld);
+		}
+	}
+	
+	/**
+	 * Queries a page of at most {@link Config#getFetchSize()} keys with the given index value.
+	 * 
+	 * @param continuation where the previous page ended or null to start
+	 */
+	private static StreamingOperation<IndexEntry> queryIndex(Bucket bucket, BinIndex index, String value, String continuation) throws RiakException
+	{
+		FetchIndex<String> query = bucket.fetchIndex(index).withValue(value).maxResults(Config.getFetchSize());
+		if(continuation != null)
+		{
+			query.withContinuation(continuation);
+		}
+		return query.executeStreaming();
 	}
 
+	/**
+	 * Websites of each TLD are counted by root CA with paginated range queries of
+	 * {@link RiakWebsite#INDEX_TLD_CA}, returning the index terms. Websites are not fetched
+	 * at all, only the distinct root CAs that are not in {@link CertificateCache} yet. The
+	 * number of requests depends on the number of root CAs, not websites.
+	 */
 	@Override
 	public WebsiteToCertDataModel getSetDomainAndIntersections(Set<String> tlds) throws RiakException
 	{
@@ -117,20 +474,42 @@ public class RiakDataController extends AbstractDataController<IRiakClient>
 			{
 				result.registerSet(tld);
 				
-				Bucket bucket = getBucket(tld);
-				for(String domain : bucket.keys())
+				// count websites by root CA
+				Map<String, Integer> rootCAKeyToCount = new HashMap<String, Integer>();
+				String prefix = tld + RiakWebsite.INDEX_TLD_CA_SEPARATOR;
+				String continuation = null;
+				do
 				{
-					// fetch the website database entity
-					RiakWebsite website = bucket.fetch(domain, RiakWebsite.class).execute();
-					
-					// determine root CA for it
-					RiakX509Cert rootCA = linkWalkToRoot(website);
+					FetchIndex<String> query = bucket_websites.fetchIndex(BinIndex.named(RiakWebsite.INDEX_TLD_CA))
+							.from(prefix)
+							.to(prefix + '~') // keys are printable ASCII
+							.returnKeyAndIndex(true)
+							.maxResults(Config.getFetchSize());
+					if(continuation != null)
+					{
+						query.withContinuation(continuation);
+					}
+					StreamingOperation<IndexEntry> page = query.executeStreaming();
+					while(page.hasNext())
+					{
+						String rootCAKey = page.next().getIndexKey().substring(prefix.length());
+						Integer count = rootCAKeyToCount.get(rootCAKey);
+						rootCAKeyToCount.put(rootCAKey, count == null ? 1 : count + 1);
+					}
+					continuation = page.hasContinuation() ? page.getContinuation() : null;
+				}
+				while(continuation != null);
+				
+				for(Entry<String, Integer> entry : rootCAKeyToCount.entrySet())
+				{
+					// determine the root CA
+					RiakX509Cert rootCA = fetchCertificate(entry.getKey());
 					
 					// register the certificate
 					result.registerSet(rootCA);
 					
 					// and register the current found overlap
-					result.registerOverlap(domain, tld, rootCA);
+					result.registerOverlap(tld, rootCA, entry.getValue());
 				}
 			}
 			return result;
@@ -144,49 +523,70 @@ public class RiakDataController extends AbstractDataController<IRiakClient>
 	}
 	
 	/**
+	 * Certificates not known to be stored are written in parallel and the website (linking
+	 * to them) afterwards.
+	 * 
 	 * @param fqn fully qualified domain name to which the certificate chain belongs
 	 * @param certificate_chain
 	 * @return
 	 */
 	@Override
-	public boolean store(URL url, List<DefaultCertObject> certificateChain)
+	protected boolean doStore(URL url, List<DefaultCertObject> certificateChain)
 	{
 		/*
-		 * Root authorities need to be first so that we can store them and
-		 * create links from subsequent authorities in linear fashion.
+		 * Root authorities need to be first so that we can link
+		 * subsequent authorities in linear fashion.
 		 */
 		Collections.reverse(certificateChain);
 		
 		try
 		{
-			// prepare to store and link certificates
-			PeekingIterator<DefaultCertObject> it = Iterators.peekingIterator(certificateChain.iterator());
+			// link certificates
+			List<RiakX509Cert> toStore = new ArrayList<RiakX509Cert>(certificateChain.size());
 			RiakX509Cert current = null; // remember the website's certificate when iterating finishes
-			
-			// first store the root CA
-			current = new RiakX509Cert(it.next());
-			bucket_certs.store(current.toKey(), current).execute();
-			
-			// then continue storing certificate chain and link certificates
-			while(it.hasNext())
+			for(DefaultCertObject cert : certificateChain)
 			{
-				// do store
-				RiakX509Cert next = new RiakX509Cert(it.next());
-				next.useLink(new RiakLink(BUCKET_NAME_CERTIFICATES, current.toKey(), ""));
-				bucket_certs.store(next.toKey(), next).execute();
-				
-				// prepare for next iteration
+				RiakX509Cert next = new RiakX509Cert(cert);
+				if(current != null)
+				{
+					next.useLink(new RiakLink(BUCKET_NAME_CERTIFICATES, current.toKey(), ""));
+				}
+				if(!storedCertKeys.contains(next.toKey()))
+				{
+					toStore.add(next);
+				}
 				current = next;
 			}
+			String rootCAKey = new RiakX509Cert(certificateChain.get(0)).toKey();
 			
-			// System.out.println(url.getAuthority());
-			// System.out.println(url.getHost());
-			// System.out.println(url.getPath());
+			// store them all at once
+			List<Future<Void>> writes = new ArrayList<Future<Void>>(toStore.size());
+			for(final RiakX509Cert cert : toStore)
+			{
+				writes.add(chainWriteExecutor.submit(new Callable<Void>()
+				{
+					@Override
+					public Void call() throws RiakException
+					{
+						withWriteQuorum(bucket_certs.store(cert.toKey(), cert)).execute();
+						return null;
+					}
+				}));
+			}
+			for(Future<Void> write : writes)
+			{
+				write.get();
+			}
+			for(RiakX509Cert cert : toStore)
+			{
+				storedCertKeys.add(cert.toKey());
+			}
 			
 			// store and link website
-			RiakWebsite website = new RiakWebsite(url.getHost());
+			RiakWebsite website = new RiakWebsite(url.getHost(), rootCAKey);
 			website.useLink(new RiakLink(BUCKET_NAME_CERTIFICATES, current.toKey(), ""));
-			getBucket(StringUtils.substringAfterLast(website.toKey(), ".")).store(website.toKey(), website).execute(); // each website is stored into a bucket of a TLD!
+			withWriteQuorum(bucket_websites.store(website.toKey(), website)).execute(); // indexed by TLD
+			registerTLD(website.getTLD());
 			
 			return true;
 		}
@@ -195,21 +595,113 @@ public class RiakDataController extends AbstractDataController<IRiakClient>
 			Logger.logThrowable("Not supposed to happen: ", e);
 			return false;
 		}
+		catch (ExecutionException e)
+		{
+			Logger.logThrowable("Not supposed to happen: ", e.getCause());
+			return false;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+	private <T> StoreObject<T> withWriteQuorum(StoreObject<T> store)
+	{
+		return writeQuorum == null ? store : store.w(writeQuorum);
+	}
+	
+	/**
+	 * Riak has no batch write operation so the websites are instead stored in parallel,
+	 * {@link #STORE_PARALLELISM} at a time. A website that fails to be stored does not
+	 * affect the others.
+	 */
+	@Override
+	protected BulkStoreResult doStoreAll(Collection<SampleWebsite> websites)
+	{
+		List<SampleWebsite> submitted = new ArrayList<SampleWebsite>(websites.size());
+		List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(websites.size());
+		for(final SampleWebsite website : websites)
+		{
+			submitted.add(website);
+			futures.add(storeExecutor.submit(new Callable<Boolean>()
+			{
+				@Override
+				public Boolean call() throws Exception
+				{
+					// {@link #doStore(URL, List)} reverses the chain so don't let it touch the original
+					return doStore(website.getURL(), new ArrayList<DefaultCertObject>(website.getCertificateChain()));
+				}
+			}));
+		}
+		
+		BulkStoreResult result = new BulkStoreResult();
+		boolean interrupted = false;
+		for(int i = 0; i < futures.size(); i++)
+		{
+			Future<Boolean> future = futures.get(i);
+			try
+			{
+				if(interrupted)
+				{
+					// don't wait for the rest but don't interrupt writes in progress either
+					future.cancel(false);
+				}
+				if(!future.isCancelled() && future.get())
+				{
+					result.getStored().add(submitted.get(i));
+				}
+				else
+				{
+					result.getFailed().add(submitted.get(i));
+				}
+			}
+			catch (ExecutionException e)
+			{
+				Logger.logThrowable("Could not store " + submitted.get(i).getURL() + ": ", e.getCause());
+				result.getFailed().add(submitted.get(i));
+			}
+			catch (InterruptedException e)
+			{
+				interrupted = true;
+				future.cancel(false);
+				result.getFailed().add(submitted.get(i));
+			}
+		}
+		if(interrupted)
+		{
+			Thread.currentThread().interrupt();
+		}
+		return result;
 	}
 	
 	// ----------------------------------------------------------------
 	// INHERITED MASSIVE MANIPULATION ROUTINES
 
+	/**
+	 * Keys are found with paginated queries of the special "$bucket" index. Each page is
+	 * deleted before the next one is queried.
+	 */
 	@Override
-	public void clearDatabase() throws RiakException
+	protected void doClearDatabase() throws RiakException
 	{
-		for(String bucketName : getAllBucketNames())
+		for(Bucket bucket : new Bucket[] { bucket_websites, bucket_certs })
 		{
-			Bucket bucket = getBucket(bucketName);
-			for(String key : bucket.keys())
+			String continuation = null;
+			do
 			{
-				bucket.delete(key).execute();
+				StreamingOperation<IndexEntry> page = queryIndex(bucket, BucketIndex.index, bucket.getName(), continuation);
+				while(page.hasNext())
+				{
+					bucket.delete(page.next().getObjectKey()).execute();
+				}
+				continuation = page.hasContinuation() ? page.getContinuation() : null;
 			}
+			while(continuation != null);
 		}
+		bucket_registry.delete(KEY_TLD_REGISTRY).execute();
+		registeredTLDs.clear();
+		storedCertKeys.clear();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+package org.skycrawl.nosqlshowcase.server.riak.model;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.basho.riak.client.cap.ConflictResolver;
+import com.basho.riak.client.cap.Mutation;
+
+/**
+ * All TLDs that have websites stored, kept in a single object so that they can be read
+ * without listing buckets or keys. TLDs are only ever added (until the database is cleared)
+ * so concurrent updates are merged by {@link #UNION}.
+ */
+public class RiakTLDRegistry
+{
+	/**
+	 * Siblings are merged into their union.
+	 */
+	public static final ConflictResolver<RiakTLDRegistry> UNION = new ConflictResolver<RiakTLDRegistry>()
+	{
+		@Override
+		public RiakTLDRegistry resolve(Collection<RiakTLDRegistry> siblings)
+		{
+			if(siblings.isEmpty())
+			{
+				return null;
+			}
+			RiakTLDRegistry result = new RiakTLDRegistry();
+			for(RiakTLDRegistry sibling : siblings)
+			{
+				result.tlds.addAll(sibling.tlds);
+			}
+			return result;
+		}
+	};
+	
+	public Set<String> tlds;
+	
+	/**
+	 * Default constructor makes Jackson happy.
+	 */
+	public RiakTLDRegistry()
+	{
+		this.tlds = new HashSet<String>();
+	}
+	
+	/**
+	 * @return a mutation adding the given TLD to the stored registry (or creating it)
+	 */
+	public static Mutation<RiakTLDRegistry> adding(final String tld)
+	{
+		return new Mutation<RiakTLDRegistry>()
+		{
+			@Override
+			public RiakTLDRegistry apply(RiakTLDRegistry original)
+			{
+				RiakTLDRegistry result = original == null ? new RiakTLDRegistry() : original;
+				result.tlds.add(tld);
+				return result;
+			}
+		};
+	}
+}
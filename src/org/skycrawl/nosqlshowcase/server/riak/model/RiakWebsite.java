@@ -1,9 +1,31 @@
 package org.skycrawl.nosqlshowcase.server.riak.model;
 
+import org.apache.commons.lang.StringUtils;
+
+import com.basho.riak.client.convert.RiakIndex;
+
 public class RiakWebsite extends AbstractRiakSingleLinkValue
 {
+	/**
+	 * Values of this index are the TLD and the root CA key, separated by
+	 * {@link #INDEX_TLD_CA_SEPARATOR}. A range query with returned terms then counts
+	 * websites by TLD and root CA without fetching them.
+	 */
+	public static final String INDEX_TLD_CA = "tldca"; // "tldca_bin" on the server
+	public static final char INDEX_TLD_CA_SEPARATOR = '/';
+	
 	public String domain; // fully qualified
 	
+	/**
+	 * Key of the root CA at the end of the linked chain, so that it need not be walked.
+	 */
+	public String rootCAKey;
+	
+	public String tld;
+	
+	@RiakIndex(name = INDEX_TLD_CA)
+	public String tldCA;
+	
 	/**
 	 * Default constructor makes Jackson happy.
 	 */
@@ -11,9 +33,17 @@ public class RiakWebsite extends AbstractRiakSingleLinkValue
 	{
 	}
 	
-	public RiakWebsite(String domain)
+	public RiakWebsite(String domain, String rootCAKey)
 	{
 		this.domain = domain;
+		this.tld = StringUtils.substringAfterLast(domain, ".");
+		useRootCAKey(rootCAKey);
+	}
+	
+	public void useRootCAKey(String rootCAKey)
+	{
+		this.rootCAKey = rootCAKey;
+		this.tldCA = rootCAKey == null ? null : this.tld + INDEX_TLD_CA_SEPARATOR + rootCAKey;
 	}
 
 	@Override
@@ -26,4 +56,17 @@ public class RiakWebsite extends AbstractRiakSingleLinkValue
 	{
 		return this.domain;
 	}
+	
+	public String getTLD()
+	{
+		return this.tld;
+	}
+	
+	/**
+	 * @return key of the root CA or null for websites stored before it was recorded
+	 */
+	public String getRootCAKey()
+	{
+		return this.rootCAKey;
+	}
 }
\ No newline at end of file
@@ -1,8 +1,11 @@
 package org.skycrawl.nosqlshowcase.server.riak.model;
 
+import org.skycrawl.nosqlshowcase.server.root.common.model.CertFingerprint;
 import org.skycrawl.nosqlshowcase.server.root.common.model.ICert;
 import org.skycrawl.nosqlshowcase.server.root.common.sample.DefaultCertObject;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 public class RiakX509Cert extends AbstractRiakSingleLinkValue implements ICert
 {
 	public int version;
@@ -11,6 +14,8 @@ public class RiakX509Cert extends AbstractRiakSingleLinkValue implements ICert
 	public String organizationUnit;
 	public String commonName;
 	
+	private transient String fingerprint;
+	
 	/**
 	 * Default constructor makes Jackson happy.
 	 */
@@ -35,7 +40,7 @@ public class RiakX509Cert extends AbstractRiakSingleLinkValue implements ICert
 	@Override
 	public String toKey()
 	{
-		return String.valueOf(hashCode());
+		return getFingerprint();
 	}
 	
 	@Override
@@ -47,6 +52,7 @@ public class RiakX509Cert extends AbstractRiakSingleLinkValue implements ICert
 	public void setVersion(int version)
 	{
 		this.version = version;
+		this.fingerprint = null;
 	}
 	@Override
 	public String getPubKeyAlg()
@@ -57,6 +63,7 @@ public class RiakX509Cert extends AbstractRiakSingleLinkValue implements ICert
 	public void setPubKeyAlg(String pubKeyAlg)
 	{
 		this.pubKeyAlg = pubKeyAlg;
+		this.fingerprint = null;
 	}
 	@Override
 	public String getOrganizationName()
@@ -67,6 +74,7 @@ public class RiakX509Cert extends AbstractRiakSingleLinkValue implements ICert
 	public void setOrganizationName(String organizationName)
 	{
 		this.organizationName = organizationName;
+		this.fingerprint = null;
 	}
 	@Override
 	public String getOrganizationUnit()
@@ -77,6 +85,7 @@ public class RiakX509Cert extends AbstractRiakSingleLinkValue implements ICert
 	public void setOrganizationUnit(String organizationUnit)
 	{
 		this.organizationUnit = organizationUnit;
+		this.fingerprint = null;
 	}
 	@Override
 	public String getCommonName()
@@ -87,6 +96,18 @@ public class RiakX509Cert extends AbstractRiakSingleLinkValue implements ICert
 	public void setCommonName(String commonName)
 	{
 		this.commonName = commonName;
+		this.fingerprint = null;
+	}
+	
+	@Override
+	@JsonIgnore
+	public String getFingerprint()
+	{
+		if(this.fingerprint == null)
+		{
+			this.fingerprint = CertFingerprint.of(this);
+		}
+		return this.fingerprint;
 	}
 	
 	@Override
@@ -1,30 +1,141 @@
 package org.skycrawl.nosqlshowcase.server.root.common.db;
 
 import java.net.URL;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.skycrawl.nosqlshowcase.server.Logger;
 import org.skycrawl.nosqlshowcase.server.root.common.exceptions.DuplicateItemException;
+import org.skycrawl.nosqlshowcase.server.root.common.model.ICert;
 import org.skycrawl.nosqlshowcase.server.root.common.model.WebsiteToCertDataModel;
 import org.skycrawl.nosqlshowcase.server.root.common.sample.DefaultCertObject;
+import org.skycrawl.nosqlshowcase.server.root.common.sample.SampleWebsite;
 
 public abstract class AbstractDataController<C extends Object>
 {
 	private C connection;
-	
+	private final List<IDataChangeListener> changeListeners;
+
 	public AbstractDataController(C connection)
 	{
 		this.connection = connection;
+		this.changeListeners = new CopyOnWriteArrayList<IDataChangeListener>();
 	}
-	
+
 	protected C getConnection()
 	{
 		return this.connection;
 	}
-	
+
 	public abstract void init() throws Exception;
 	public abstract Set<String> getTLDs() throws Exception;;
 	public abstract WebsiteToCertDataModel getSetDomainAndIntersections(Set<String> tlds) throws Exception;
-	public abstract boolean store(URL website, List<DefaultCertObject> certificateChain) throws DuplicateItemException, Exception;
-	public abstract void clearDatabase() throws Exception;
-}
\ No newline at end of file
+
+	//---------------------------------------------------------------
+	// DATA MANIPULATION - NOTIFIES CHANGE LISTENERS
+
+	public final boolean store(URL website, List<DefaultCertObject> certificateChain) throws DuplicateItemException, Exception
+	{
+		SampleWebsite sample = new SampleWebsite(website, certificateChain);
+		DefaultCertObject rootCA = sample.getRootCA(); // some implementations reorder the chain
+		if(doStore(website, certificateChain))
+		{
+			fireWebsiteStored(sample.getDomain(), sample.getTLD(), rootCA);
+			return true;
+		}
+		else
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Stores all the given websites.
+	 *
+	 * @throws Exception if the whole operation failed
+	 */
+	public final BulkStoreResult storeAll(Collection<SampleWebsite> websites) throws Exception
+	{
+		BulkStoreResult result = doStoreAll(websites);
+		for(SampleWebsite website : result.getStored())
+		{
+			fireWebsiteStored(website.getDomain(), website.getTLD(), website.getRootCA());
+		}
+		return result;
+	}
+
+	public final void clearDatabase() throws Exception
+	{
+		doClearDatabase();
+		for(IDataChangeListener listener : changeListeners)
+		{
+			listener.databaseCleared();
+		}
+	}
+
+	public void addChangeListener(IDataChangeListener listener)
+	{
+		changeListeners.add(listener);
+	}
+
+	public void removeChangeListener(IDataChangeListener listener)
+	{
+		changeListeners.remove(listener);
+	}
+
+	//---------------------------------------------------------------
+	// DATA MANIPULATION - ACTUAL IMPLEMENTATION
+
+	protected abstract boolean doStore(URL website, List<DefaultCertObject> certificateChain) throws DuplicateItemException, Exception;
+	protected abstract void doClearDatabase() throws Exception;
+
+	/**
+	 * This default implementation simply calls {@link #doStore(URL, List)} for each of the
+	 * given websites. Data controllers are encouraged to override it with a batched
+	 * implementation native to their database. A website that fails to be stored does
+	 * not affect the others.
+	 *
+	 * @throws Exception if the whole operation failed
+	 */
+	protected BulkStoreResult doStoreAll(Collection<SampleWebsite> websites) throws Exception
+	{
+		BulkStoreResult result = new BulkStoreResult();
+		for(SampleWebsite website : websites)
+		{
+			try
+			{
+				if(doStore(website.getURL(), website.getCertificateChain()))
+				{
+					result.getStored().add(website);
+				}
+				else
+				{
+					result.getFailed().add(website);
+				}
+			}
+			catch (DuplicateItemException e)
+			{
+				result.getDuplicates().add(website);
+			}
+			catch (Exception e)
+			{
+				Logger.logThrowable("Could not store " + website.getURL() + ": ", e);
+				result.getFailed().add(website);
+			}
+		}
+		return result;
+	}
+
+	//---------------------------------------------------------------
+	// PRIVATE INTERFACE
+
+	private void fireWebsiteStored(String domain, String tld, ICert rootCA)
+	{
+		for(IDataChangeListener listener : changeListeners)
+		{
+			listener.websiteStored(domain, tld, rootCA);
+		}
+	}
+}
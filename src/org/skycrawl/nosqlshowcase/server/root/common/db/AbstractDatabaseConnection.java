@@ -2,6 +2,8 @@ package org.skycrawl.nosqlshowcase.server.root.common.db;
 
 import java.io.Serializable;
 
+import org.skycrawl.nosqlshowcase.server.Config;
+
 public abstract class AbstractDatabaseConnection<C extends Object, DC extends AbstractDataController<C>> implements Serializable
 {
 	private static final long	serialVersionUID	= 2253878732671568514L;
@@ -10,6 +12,7 @@ public abstract class AbstractDatabaseConnection<C extends Object, DC extends Ab
 	private int port = -1;
 	private C connection = null;
 	private DC dataController;
+	private PoolSettings poolSettings = null;
 	
 	public void connect(String hostname, int port) throws Exception
 	{
@@ -61,6 +64,23 @@ public abstract class AbstractDatabaseConnection<C extends Object, DC extends Ab
 		return this.dataController;
 	}
 
+	/**
+	 * @return settings used by {@link #doConnect(String, int)}, {@link Config#getPoolSettings()}
+	 * unless overridden
+	 */
+	public PoolSettings getPoolSettings()
+	{
+		return poolSettings != null ? poolSettings : Config.getPoolSettings();
+	}
+	
+	/**
+	 * Only takes effect on the next {@link #connect(String, int)}.
+	 */
+	public void setPoolSettings(PoolSettings poolSettings)
+	{
+		this.poolSettings = poolSettings;
+	}
+	
 	public boolean isDefined() throws Exception
 	{
 		return (connection != null) && isAlive();
@@ -77,7 +97,17 @@ public abstract class AbstractDatabaseConnection<C extends Object, DC extends Ab
 	
 	public abstract String getDBVersion();
 	
+	/**
+	 * @return current state of the connection pool, only defined while connected
+	 */
+	public abstract PoolUtilization getPoolUtilization();
+	
 	protected abstract boolean isAlive() throws Exception;
+	
+	/**
+	 * Creates the (pooled and thread-safe) client. It is shared by all users of the database
+	 * so it should be configured according to {@link #getPoolSettings()}.
+	 */
 	protected abstract C doConnect(String hostname, int port) throws Exception;
 	protected abstract DC createDataController(C connection);
 	protected abstract void doClose();
@@ -0,0 +1,38 @@
+package org.skycrawl.nosqlshowcase.server.root.common.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.skycrawl.nosqlshowcase.server.root.common.sample.SampleWebsite;
+
+/**
+ * Outcome of {@link AbstractDataController#storeAll(java.util.Collection)}, categorized by website.
+ */
+public class BulkStoreResult
+{
+	private final List<SampleWebsite> stored;
+	private final List<SampleWebsite> duplicates;
+	private final List<SampleWebsite> failed;
+	
+	public BulkStoreResult()
+	{
+		this.stored = new ArrayList<SampleWebsite>();
+		this.duplicates = new ArrayList<SampleWebsite>();
+		this.failed = new ArrayList<SampleWebsite>();
+	}
+
+	public List<SampleWebsite> getStored()
+	{
+		return this.stored;
+	}
+
+	public List<SampleWebsite> getDuplicates()
+	{
+		return this.duplicates;
+	}
+
+	public List<SampleWebsite> getFailed()
+	{
+		return this.failed;
+	}
+}
@@ -0,0 +1,112 @@
+package org.skycrawl.nosqlshowcase.server.root.common.db;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.skycrawl.nosqlshowcase.server.root.common.model.CertFingerprint;
+import org.skycrawl.nosqlshowcase.server.root.common.model.ICert;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * <p>A bounded, thread-safe cache of certificates keyed by their {@link CertFingerprint
+ * fingerprint}, shared by all data controllers of the server. Since the fingerprint is
+ * derived from the content, an entry never becomes stale - even if the database is
+ * cleared and the certificate stored again.</p>
+ *
+ * <p>Entries are also keyed by their type because some controllers need database
+ * specific certificate objects (e.g. with links). Cached certificates are shared so
+ * they must NOT be modified.</p>
+ *
+ * @author SkyCrawl
+ */
+public class CertificateCache
+{
+	public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+
+	private static CertificateCache shared = null;
+
+	private final Cache<String, ICert> cache;
+
+	public CertificateCache(long maximumSize)
+	{
+		this.cache = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * @return the instance shared by all data controllers
+	 */
+	public static synchronized CertificateCache getShared()
+	{
+		if(shared == null)
+		{
+			shared = new CertificateCache(DEFAULT_MAXIMUM_SIZE);
+		}
+		return shared;
+	}
+
+	/**
+	 * Gets the certificate with the given fingerprint, loading it with the given loader
+	 * if it is not cached yet. Concurrent requests for the same certificate only load
+	 * it once.
+	 *
+	 * @throws Exception whatever the loader throws
+	 */
+	public <T extends ICert> T get(String fingerprint, Class<T> type, Callable<? extends T> loader) throws Exception
+	{
+		try
+		{
+			return type.cast(cache.get(toKey(fingerprint, type), loader));
+		}
+		catch (ExecutionException e) // checked exception thrown by the loader
+		{
+			throw (Exception) e.getCause();
+		}
+		catch (UncheckedExecutionException e) // runtime exception thrown by the loader
+		{
+			throw (RuntimeException) e.getCause();
+		}
+	}
+
+	/**
+	 * @return the cached certificate or null if there is none
+	 */
+	public <T extends ICert> T getIfPresent(String fingerprint, Class<T> type)
+	{
+		return type.cast(cache.getIfPresent(toKey(fingerprint, type)));
+	}
+
+	public <T extends ICert> void put(String fingerprint, Class<T> type, T cert)
+	{
+		cache.put(toKey(fingerprint, type), cert);
+	}
+
+	public void invalidateAll()
+	{
+		cache.invalidateAll();
+	}
+
+	public long size()
+	{
+		return cache.size();
+	}
+
+	/**
+	 * @return hit, miss, load and eviction counts since the cache was created
+	 */
+	public CacheStats getStats()
+	{
+		return cache.stats();
+	}
+
+	private static String toKey(String fingerprint, Class<?> type)
+	{
+		return type.getSimpleName() + ':' + fingerprint;
+	}
+}
@@ -0,0 +1,144 @@
+package org.skycrawl.nosqlshowcase.server.root.common.db;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.skycrawl.nosqlshowcase.server.root.common.model.ICert;
+import org.skycrawl.nosqlshowcase.server.root.common.model.WebsiteToCertDataModel;
+
+/**
+ * <p>Collects changes made through a data controller so that a previously computed
+ * {@link WebsiteToCertDataModel} can be brought up to date in O(changes) instead of
+ * being recomputed from the whole database.</p>
+ * 
+ * <p>Whenever the changes can not be applied incrementally (database was cleared, too
+ * many changes accumulated, ...), {@link #needsRebuild()} returns true.</p>
+ * 
+ * @author SkyCrawl
+ */
+public class DataChangeTracker implements IDataChangeListener
+{
+	/**
+	 * Beyond this many pending changes, a full rebuild is cheaper (and uses less memory).
+	 */
+	private static final int MAX_PENDING_CHANGES = 100000;
+	
+	private final List<StoredWebsite> pendingChanges;
+	private boolean needsRebuild;
+	private boolean rebuilding;
+	private boolean changedWhileRebuilding;
+	
+	public DataChangeTracker()
+	{
+		this.pendingChanges = new ArrayList<StoredWebsite>();
+		this.needsRebuild = true;
+		this.rebuilding = false;
+		this.changedWhileRebuilding = false;
+	}
+	
+	@Override
+	public synchronized void websiteStored(String domain, String tld, ICert rootCA)
+	{
+		if(rebuilding)
+		{
+			changedWhileRebuilding = true;
+		}
+		else if(!needsRebuild)
+		{
+			if(pendingChanges.size() < MAX_PENDING_CHANGES)
+			{
+				pendingChanges.add(new StoredWebsite(tld, rootCA));
+			}
+			else
+			{
+				invalidate();
+			}
+		}
+	}
+	
+	@Override
+	public synchronized void databaseCleared()
+	{
+		invalidate();
+	}
+	
+	public synchronized boolean needsRebuild()
+	{
+		return needsRebuild;
+	}
+	
+	/**
+	 * To be called just before the model is rebuilt from the database. Changes made until
+	 * {@link #rebuildFinished()} are held back because there is no telling whether the
+	 * rebuilt model already includes them.
+	 */
+	public synchronized void rebuildStarted()
+	{
+		pendingChanges.clear();
+		needsRebuild = false;
+		rebuilding = true;
+		changedWhileRebuilding = false;
+	}
+	
+	/**
+	 * To be called once the model has been read from the database. If anything was stored
+	 * in the meantime, the model may or may not include it, so rather than counting it twice
+	 * (or not at all), the next refresh rebuilds the model again.
+	 */
+	public synchronized void rebuildFinished()
+	{
+		if(rebuilding)
+		{
+			rebuilding = false;
+			if(changedWhileRebuilding)
+			{
+				invalidate();
+			}
+		}
+	}
+	
+	/**
+	 * Applies all pending changes to the given model.
+	 * 
+	 * @return TLDs affected by the changes
+	 * @throws IllegalStateException if {@link #needsRebuild()}
+	 */
+	public synchronized Set<String> applyTo(WebsiteToCertDataModel model)
+	{
+		if(needsRebuild)
+		{
+			throw new IllegalStateException("Changes can not be applied incrementally, the model needs to be rebuilt.");
+		}
+		
+		Set<String> result = new HashSet<String>();
+		for(StoredWebsite change : pendingChanges)
+		{
+			model.registerWebsite(change.tld, change.rootCA);
+			result.add(change.tld);
+		}
+		pendingChanges.clear();
+		return result;
+	}
+	
+	public synchronized void invalidate()
+	{
+		pendingChanges.clear();
+		needsRebuild = true;
+		rebuilding = false;
+		changedWhileRebuilding = false;
+	}
+	
+	private static class StoredWebsite
+	{
+		public final String tld;
+		public final ICert rootCA;
+		
+		public StoredWebsite(String tld, ICert rootCA)
+		{
+			this.tld = tld;
+			this.rootCA = rootCA;
+		}
+	}
+}
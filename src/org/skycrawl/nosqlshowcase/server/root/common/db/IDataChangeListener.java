@@ -0,0 +1,13 @@
+package org.skycrawl.nosqlshowcase.server.root.common.db;
+
+import org.skycrawl.nosqlshowcase.server.root.common.model.ICert;
+
+/**
+ * Receives changes made through an {@link AbstractDataController}. Methods may be called
+ * from any thread, including several threads at once.
+ */
+public interface IDataChangeListener
+{
+	void websiteStored(String domain, String tld, ICert rootCA);
+	void databaseCleared();
+}
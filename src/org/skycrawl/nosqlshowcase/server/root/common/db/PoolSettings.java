@@ -0,0 +1,148 @@
+package org.skycrawl.nosqlshowcase.server.root.common.db;
+
+import java.io.Serializable;
+
+/**
+ * Settings of the connection pool behind an {@link AbstractDatabaseConnection}. Each client
+ * library maps them to its own options as closely as it can. Defaults can be overridden in
+ * the deployment descriptor, see {@link org.skycrawl.nosqlshowcase.server.Config#getPoolSettings()}.
+ *
+ * @author SkyCrawl
+ */
+public class PoolSettings implements Serializable
+{
+	private static final long	serialVersionUID	= 2904176330386407437L;
+
+	public static final int DEFAULT_MAX_CONNECTIONS = 16;
+	public static final int DEFAULT_MIN_IDLE_CONNECTIONS = 1;
+	public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+	public static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = 10000;
+	public static final int DEFAULT_MAX_WAIT_MILLIS = 5000;
+	public static final int DEFAULT_IDLE_TIMEOUT_MILLIS = 60000;
+	public static final int DEFAULT_EVICTION_INTERVAL_MILLIS = 30000;
+
+	private int maxConnections;
+	private int minIdleConnections;
+	private int connectTimeoutMillis;
+	private int socketTimeoutMillis;
+	private int maxWaitMillis;
+	private int idleTimeoutMillis;
+	private int evictionIntervalMillis;
+
+	public PoolSettings()
+	{
+		this.maxConnections = DEFAULT_MAX_CONNECTIONS;
+		this.minIdleConnections = DEFAULT_MIN_IDLE_CONNECTIONS;
+		this.connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+		this.socketTimeoutMillis = DEFAULT_SOCKET_TIMEOUT_MILLIS;
+		this.maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+		this.idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+		this.evictionIntervalMillis = DEFAULT_EVICTION_INTERVAL_MILLIS;
+	}
+
+	/**
+	 * Maximum number of connections open at a time (per host, where applicable).
+	 */
+	public int getMaxConnections()
+	{
+		return this.maxConnections;
+	}
+
+	public void setMaxConnections(int maxConnections)
+	{
+		checkPositive(maxConnections, "Maximum number of connections");
+		this.maxConnections = maxConnections;
+	}
+
+	/**
+	 * Number of connections kept open even when idle.
+	 */
+	public int getMinIdleConnections()
+	{
+		return this.minIdleConnections;
+	}
+
+	public void setMinIdleConnections(int minIdleConnections)
+	{
+		if(minIdleConnections < 0)
+		{
+			throw new IllegalArgumentException("Minimum number of idle connections can not be negative.");
+		}
+		this.minIdleConnections = minIdleConnections;
+	}
+
+	public int getConnectTimeoutMillis()
+	{
+		return this.connectTimeoutMillis;
+	}
+
+	public void setConnectTimeoutMillis(int connectTimeoutMillis)
+	{
+		checkPositive(connectTimeoutMillis, "Connect timeout");
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	/**
+	 * Maximum time to wait for a response to a single request.
+	 */
+	public int getSocketTimeoutMillis()
+	{
+		return this.socketTimeoutMillis;
+	}
+
+	public void setSocketTimeoutMillis(int socketTimeoutMillis)
+	{
+		checkPositive(socketTimeoutMillis, "Socket timeout");
+		this.socketTimeoutMillis = socketTimeoutMillis;
+	}
+
+	/**
+	 * Maximum time to wait for a connection when all of them are in use.
+	 */
+	public int getMaxWaitMillis()
+	{
+		return this.maxWaitMillis;
+	}
+
+	public void setMaxWaitMillis(int maxWaitMillis)
+	{
+		checkPositive(maxWaitMillis, "Maximum wait time");
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	/**
+	 * Connections idle for longer than this (beyond {@link #getMinIdleConnections()}) are closed.
+	 */
+	public int getIdleTimeoutMillis()
+	{
+		return this.idleTimeoutMillis;
+	}
+
+	public void setIdleTimeoutMillis(int idleTimeoutMillis)
+	{
+		checkPositive(idleTimeoutMillis, "Idle timeout");
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	/**
+	 * How often idle connections are looked for.
+	 */
+	public int getEvictionIntervalMillis()
+	{
+		return this.evictionIntervalMillis;
+	}
+
+	public void setEvictionIntervalMillis(int evictionIntervalMillis)
+	{
+		checkPositive(evictionIntervalMillis, "Eviction interval");
+		this.evictionIntervalMillis = evictionIntervalMillis;
+	}
+
+	private static void checkPositive(int value, String name)
+	{
+		if(value < 1)
+		{
+			throw new IllegalArgumentException(name + " must be positive.");
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package org.skycrawl.nosqlshowcase.server.root.common.db;
+
+/**
+ * A snapshot of connection pool utilization. Not all client libraries expose all of the
+ * numbers - those that are not known are {@link #UNKNOWN}.
+ *
+ * @author SkyCrawl
+ */
+public class PoolUtilization
+{
+	public static final int UNKNOWN = -1;
+
+	private final int open;
+	private final int active;
+	private final int max;
+	private final int waiting;
+
+	/**
+	 * @param open number of open connections, both active and idle
+	 * @param active number of connections currently in use
+	 * @param max maximum number of open connections
+	 * @param waiting number of threads waiting for a connection
+	 */
+	public PoolUtilization(int open, int active, int max, int waiting)
+	{
+		this.open = open;
+		this.active = active;
+		this.max = max;
+		this.waiting = waiting;
+	}
+
+	public int getOpen()
+	{
+		return this.open;
+	}
+
+	public int getActive()
+	{
+		return this.active;
+	}
+
+	public int getMax()
+	{
+		return this.max;
+	}
+
+	public int getWaiting()
+	{
+		return this.waiting;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%s active, %s open, %s max, %s waiting", format(active), format(open), format(max), format(waiting));
+	}
+
+	private static String format(int value)
+	{
+		return value == UNKNOWN ? "?" : String.valueOf(value);
+	}
+}
@@ -0,0 +1,81 @@
+package org.skycrawl.nosqlshowcase.server.root.common.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * <p>Content fingerprint of a certificate, used as its key in all the databases. It is
+ * a 128-bit Murmur3 hash of the issuer name fields, public key algorithm and version,
+ * encoded as 32 lowercase hexadecimal characters.</p>
+ *
+ * <p>Some databases give back empty strings instead of nulls so both are treated the
+ * same. Each field is prefixed by its length so that values can not "shift" between
+ * fields.</p>
+ *
+ * @author SkyCrawl
+ */
+public class CertFingerprint
+{
+	private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+	private static final int LENGTH = HASH_FUNCTION.bits() / 4;
+
+	public static String of(ICert cert)
+	{
+		Hasher hasher = HASH_FUNCTION.newHasher();
+		putField(hasher, cert.getCommonName());
+		putField(hasher, cert.getOrganizationName());
+		putField(hasher, cert.getOrganizationUnit());
+		putField(hasher, cert.getPubKeyAlg());
+		hasher.putInt(cert.getVersion());
+		return hasher.hash().toString();
+	}
+
+	/**
+	 * Content fingerprint of a whole certificate chain, derived from the fingerprints of
+	 * its certificates. Equal chains get equal fingerprints, as long as the certificates
+	 * are given in the same order.
+	 */
+	public static String ofChain(List<? extends ICert> chain)
+	{
+		Hasher hasher = HASH_FUNCTION.newHasher();
+		hasher.putInt(chain.size());
+		for(ICert cert : chain)
+		{
+			hasher.putString(cert.getFingerprint(), StandardCharsets.UTF_8);
+		}
+		return hasher.hash().toString();
+	}
+
+	/**
+	 * Used to tell fingerprints from legacy keys (decimal 32-bit hash codes) when
+	 * migrating existing data.
+	 */
+	public static boolean isFingerprint(String key)
+	{
+		if((key == null) || (key.length() != LENGTH))
+		{
+			return false;
+		}
+		for(int i = 0; i < key.length(); i++)
+		{
+			char c = key.charAt(i);
+			if(((c < '0') || (c > '9')) && ((c < 'a') || (c > 'f')))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void putField(Hasher hasher, String value)
+	{
+		value = Strings.nullToEmpty(value);
+		hasher.putInt(value.length());
+		hasher.putString(value, StandardCharsets.UTF_8);
+	}
+}
@@ -12,4 +12,10 @@ public interface ICert
 	void setOrganizationUnit(String organizationUnit);
 	String getCommonName();
 	void setCommonName(String commonName);
+	
+	/**
+	 * @return {@link CertFingerprint} of this certificate, computed once and cached until
+	 * any of the fields changes
+	 */
+	String getFingerprint();
 }
\ No newline at end of file
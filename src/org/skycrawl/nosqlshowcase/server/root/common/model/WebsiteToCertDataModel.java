@@ -4,34 +4,57 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import org.skycrawl.nosqlshowcase.server.riak.model.RiakX509Cert;
 import org.skycrawl.nosqlshowcase.server.root.ui.venndiagram.VennOverlap;
 import org.skycrawl.nosqlshowcase.server.root.ui.venndiagram.VennSet;
+import org.skycrawl.nosqlshowcase.server.root.util.LongIntHashMap;
 
 public class WebsiteToCertDataModel
 {
 	/**
-	 * Key to venn set mapping. Sets represent TLDs and {@link RiakX509Cert root CAs}.
-	 * Keys are taken from database.
+	 * Key to set ID mappings. Sets represent TLDs and {@link RiakX509Cert root CAs}.
+	 * Keys are TLDs and {@link CertFingerprint certificate fingerprints}, IDs index the
+	 * lists below.
 	 */
-	private final Map<String, VennSet> sets;
+	private final Map<String, Integer> tldIDs;
+	private final Map<String, Integer> certIDs;
+	private final List<VennSet> tldSets;
+	private final List<VennSet> certSets;
 	
 	/**
 	 * Venn overlaps, always between two sets - one TLD and one {@link RiakX509Cert CA}.
+	 * Maps {@link #toOverlapKey(int, int) overlap keys} to the number of websites in
+	 * the overlap. Names of the websites are not kept: the diagrams only display the
+	 * numbers and keeping a name per stored website made the model grow with the
+	 * database rather than with the number of TLDs and CAs.
 	 */
-	private final Map<TLDtoCertMapping, List<String>> overlaps;
+	private final LongIntHashMap overlapSizes;
+	
+	/**
+	 * TLD ID to the IDs of CAs it overlaps with. Only updated when an overlap is first
+	 * registered.
+	 */
+	private final List<List<Integer>> tldToCertIDs;
 	
 	public WebsiteToCertDataModel()
 	{
-		this.sets = new HashMap<String, VennSet>();
-		this.overlaps = new HashMap<TLDtoCertMapping, List<String>>();
+		this.tldIDs = new HashMap<String, Integer>();
+		this.certIDs = new HashMap<String, Integer>();
+		this.tldSets = new ArrayList<VennSet>();
+		this.certSets = new ArrayList<VennSet>();
+		this.overlapSizes = new LongIntHashMap();
+		this.tldToCertIDs = new ArrayList<List<Integer>>();
 	}
 	
 	public void registerSet(String tld)
 	{
-		registerSet(tld, new VennSet(tld.toUpperCase(), 0));
+		if(!tldIDs.containsKey(tld))
+		{
+			tldIDs.put(tld, tldSets.size());
+			tldSets.add(new VennSet(tld.toUpperCase(), 0));
+			tldToCertIDs.add(new ArrayList<Integer>());
+		}
 	}
 	
 	public void registerSet(ICert cert)
@@ -49,84 +72,119 @@ public class WebsiteToCertDataModel
 		{
 			throw new IllegalArgumentException("Could not determine venn set label from the given certificate.");
 		}
-		registerSet(String.valueOf(cert.hashCode()), new VennSet(setLabel, 0));
+		if(!certIDs.containsKey(cert.getFingerprint()))
+		{
+			certIDs.put(cert.getFingerprint(), certSets.size());
+			certSets.add(new VennSet(setLabel, 0));
+		}
 	}
 	
 	/**
+	 * Registers a website along with both of its sets. Used to update the model
+	 * incrementally. Same restrictions as {@link #registerOverlap(String, ICert)}
+	 * apply.
+	 */
+	public void registerWebsite(String tld, ICert rootCA)
+	{
+		registerSet(tld);
+		registerSet(rootCA);
+		registerOverlap(tld, rootCA);
+	}
+	
+	/**
+	 * Registers a website from the given TLD, signed by the given certificate.
 	 * Although this is not checked, each website must only be registered ONCE!
 	 * 
-	 * @param website
 	 * @param tld
 	 * @param cert
 	 */
-	public void registerOverlap(String website, String tld, ICert cert)
+	public void registerOverlap(String tld, ICert cert)
 	{
-		VennSet tldSet = sets.get(tld);
-		VennSet certSet = sets.get(String.valueOf(cert.hashCode()));
+		registerOverlap(tld, cert, 1);
+	}
+	
+	/**
+	 * Registers the given number of websites from the given TLD, all signed by the given
+	 * certificate. Same as calling {@link #registerOverlap(String, ICert)} repeatedly.
+	 * 
+	 * @param tld
+	 * @param cert
+	 * @param websites
+	 */
+	public void registerOverlap(String tld, ICert cert, int websites)
+	{
+		if(websites < 1)
+		{
+			throw new IllegalArgumentException("At least one website must be registered.");
+		}
+		
+		Integer tldID = tldIDs.get(tld);
+		Integer certID = certIDs.get(cert.getFingerprint());
 		
 		// first check whether the given arguments are mapped to sets
-		if(tldSet == null)
+		if(tldID == null)
 		{
 			throw new IllegalStateException("The given TLD has not been registered as a set.");
 		}
-		if(certSet == null)
+		if(certID == null)
 		{
 			throw new IllegalStateException("The given certificate has not been registered as a set.");
 		}
 		
 		// register website in the mapped sets
-		tldSet.setSize(tldSet.getSize() + 1);
-		certSet.setSize(certSet.getSize() + 1);
+		VennSet tldSet = tldSets.get(tldID);
+		VennSet certSet = certSets.get(certID);
+		tldSet.setSize(tldSet.getSize() + websites);
+		certSet.setSize(certSet.getSize() + websites);
 		
 		// and then the actual registration
-		TLDtoCertMapping overlapKey = new TLDtoCertMapping(tldSet, certSet); // IMPORTANT: this order is used below
-		if(!overlaps.containsKey(overlapKey))
+		if(overlapSizes.addTo(toOverlapKey(tldID, certID), websites) == websites)
 		{
-			overlaps.put(overlapKey, new ArrayList<String>());
+			tldToCertIDs.get(tldID).add(certID);
 		}
-		overlaps.get(overlapKey).add(website);
 	}
 	
 	public void fillDataForTLD(String tld, List<VennSet> sets, List<VennOverlap> overlaps)
 	{
 		// first some checks
-		VennSet tldSet = this.sets.get(tld);
-		if(tldSet == null)
+		Integer tldID = tldIDs.get(tld);
+		if(tldID == null)
 		{
 			throw new IllegalStateException("The given TLD has not been registered as a set.");
 		}
 		
 		// and then some logic
-		sets.add(tldSet);
-		for(Entry<TLDtoCertMapping, List<String>> entry : this.overlaps.entrySet())
+		sets.add(tldSets.get(tldID));
+		for(Integer certID : tldToCertIDs.get(tldID))
 		{
-			// IMPORTANT: this order is used above
-			if(entry.getKey().getValue1().equals(tldSet))
-			{
-				// also add the root CA set
-				sets.add(entry.getKey().getValue2()); // it is required to be unique, otherwise the instances of {@link TLDtoCertMapping} would be the same
-				overlaps.add(new VennOverlap(
-						new int[] { 0, sets.size() - 1 },
-						entry.getValue().size()
-				));
-			}
+			// also add the root CA set
+			sets.add(certSets.get(certID)); // CA IDs are unique within the TLD's index
+			overlaps.add(new VennOverlap(
+					new int[] { 0, sets.size() - 1 },
+					overlapSizes.get(toOverlapKey(tldID, certID))
+			));
 		}
 	}
 	
 	public void clear()
 	{
-		sets.clear();
-		overlaps.clear();
+		tldIDs.clear();
+		certIDs.clear();
+		tldSets.clear();
+		certSets.clear();
+		overlapSizes.clear();
+		tldToCertIDs.clear();
 	}
 	
 	//---------------------------------------------------------------------
 	// PRIVATE INTERFACE
 	
-	private void registerSet(String key, VennSet set)
+	/**
+	 * Both IDs are non-negative so the mapping is injective: TLD ID takes the upper
+	 * 32 bits, CA ID the lower 32 bits.
+	 */
+	private static long toOverlapKey(int tldID, int certID)
 	{
-		if(!sets.containsKey(key))
-		{
-			sets.put(key, set);
-		}
+		return ((long) tldID << 32) | (certID & 0xffffffffL);
 	}
 }
\ No newline at end of file
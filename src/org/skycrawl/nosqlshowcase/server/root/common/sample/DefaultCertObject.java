@@ -1,5 +1,6 @@
 package org.skycrawl.nosqlshowcase.server.root.common.sample;
 
+import org.skycrawl.nosqlshowcase.server.root.common.model.CertFingerprint;
 import org.skycrawl.nosqlshowcase.server.root.common.model.ICert;
 
 public class DefaultCertObject implements ICert
@@ -10,6 +11,8 @@ public class DefaultCertObject implements ICert
 	public String organizationUnit;
 	public String commonName;
 	
+	private transient String fingerprint;
+	
 	@Override
 	public int getVersion()
 	{
@@ -19,6 +22,7 @@ public class DefaultCertObject implements ICert
 	public void setVersion(int version)
 	{
 		this.version = version;
+		this.fingerprint = null;
 	}
 	@Override
 	public String getPubKeyAlg()
@@ -29,6 +33,7 @@ public class DefaultCertObject implements ICert
 	public void setPubKeyAlg(String pubKeyAlg)
 	{
 		this.pubKeyAlg = pubKeyAlg;
+		this.fingerprint = null;
 	}
 	@Override
 	public String getOrganizationName()
@@ -39,6 +44,7 @@ public class DefaultCertObject implements ICert
 	public void setOrganizationName(String organizationName)
 	{
 		this.organizationName = organizationName;
+		this.fingerprint = null;
 	}
 	@Override
 	public String getOrganizationUnit()
@@ -49,6 +55,7 @@ public class DefaultCertObject implements ICert
 	public void setOrganizationUnit(String organizationUnit)
 	{
 		this.organizationUnit = organizationUnit;
+		this.fingerprint = null;
 	}
 	@Override
 	public String getCommonName()
@@ -59,6 +66,17 @@ public class DefaultCertObject implements ICert
 	public void setCommonName(String commonName)
 	{
 		this.commonName = commonName;
+		this.fingerprint = null;
+	}
+	
+	@Override
+	public String getFingerprint()
+	{
+		if(this.fingerprint == null)
+		{
+			this.fingerprint = CertFingerprint.of(this);
+		}
+		return this.fingerprint;
 	}
 	
 	@Override
@@ -1,7 +1,9 @@
 package org.skycrawl.nosqlshowcase.server.root.common.sample;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SampleLoadResult
 {
@@ -9,13 +11,18 @@ public class SampleLoadResult
 	private final List<String> urlsWithInvalidResponse;
 	private final List<String> ignoredURLs;
 	private final List<String> failedToSaveURLs;
+	private final AtomicInteger storedCount;
 	
+	/**
+	 * The lists are synchronized because {@link SampleLoader} fills them from several threads.
+	 */
 	public SampleLoadResult()
 	{
-		this.malformedURLs = new ArrayList<String>();
-		this.urlsWithInvalidResponse = new ArrayList<String>();
-		this.ignoredURLs = new ArrayList<String>();
-		this.failedToSaveURLs = new ArrayList<String>(); 
+		this.malformedURLs = Collections.synchronizedList(new ArrayList<String>());
+		this.urlsWithInvalidResponse = Collections.synchronizedList(new ArrayList<String>());
+		this.ignoredURLs = Collections.synchronizedList(new ArrayList<String>());
+		this.failedToSaveURLs = Collections.synchronizedList(new ArrayList<String>()); 
+		this.storedCount = new AtomicInteger(0);
 	}
 
 	public List<String> getMalformedURLs()
@@ -42,4 +49,22 @@ public class SampleLoadResult
 	{
 		return this.failedToSaveURLs;
 	}
+	
+	public int getStoredCount()
+	{
+		return this.storedCount.get();
+	}
+	
+	public void addStoredCount(int count)
+	{
+		this.storedCount.addAndGet(count);
+	}
+	
+	/**
+	 * @return number of URLs that have been either stored or put in one of the lists
+	 */
+	public int getProcessedCount()
+	{
+		return getStoredCount() + malformedURLs.size() + urlsWithInvalidResponse.size() + ignoredURLs.size() + failedToSaveURLs.size();
+	}
 }
\ No newline at end of file
@@ -3,9 +3,18 @@ package org.skycrawl.nosqlshowcase.server.root.common.sample;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.HttpsURLConnection;
 
@@ -14,92 +23,503 @@ import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 import org.skycrawl.nosqlshowcase.server.Logger;
 import org.skycrawl.nosqlshowcase.server.root.common.db.AbstractDataController;
+import org.skycrawl.nosqlshowcase.server.root.common.db.BulkStoreResult;
+import org.skycrawl.nosqlshowcase.server.root.common.exceptions.DuplicateItemException;
 
+/**
+ * <p>Loads certificate chains of websites and stores them with the given data controller.</p>
+ *
+ * <p>{@link #loadAll(Iterable)} processes the URLs in a staged pipeline:</p>
+ * <ol>
+ * <li> fetch - up to {@link #getFetchConcurrency()} TLS handshakes at a time,
+ * <li> conversion - certificates to {@link DefaultCertObject}s, by {@link #getConvertConcurrency()} threads,
+ * <li> storage - {@link AbstractDataController#storeAll(java.util.Collection)} in batches of up to
+ * {@link #getStoreBatchSize()} websites, by {@link #getStoreConcurrency()} threads.
+ * </ol>
+ * <p>Stages are connected with queues of {@link #getQueueCapacity()} items. A full queue blocks
+ * the previous stage so that a slow database doesn't cause unbounded memory usage.</p>
+ *
+ * @author SkyCrawl
+ */
 public class SampleLoader<DC extends AbstractDataController<?>>
 {
+	/*
+	 * Default pipeline settings.
+	 */
+	public static final int DEFAULT_FETCH_CONCURRENCY = 16;
+	public static final int DEFAULT_CONVERT_CONCURRENCY = 2;
+	public static final int DEFAULT_STORE_CONCURRENCY = 1;
+	public static final int DEFAULT_STORE_BATCH_SIZE = 100;
+	public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+	/*
+	 * Timeouts for a single website, in milliseconds.
+	 */
+	private static final int CONNECT_TIMEOUT = 10000;
+	private static final int READ_TIMEOUT = 10000;
+
+	/**
+	 * Notified each time some URLs have been processed. May be called from any of the
+	 * pipeline's threads, concurrently. Exceptions thrown by the listener are logged and
+	 * otherwise ignored.
+	 */
+	public interface IProgressListener
+	{
+		void progressed(SampleLoadResult result);
+	}
+
 	// main variables
 	private final DC dataController;
 	private final SampleLoadResult loadResult;
+	private IProgressListener progressListener;
+
+	// pipeline settings
+	private int fetchConcurrency;
+	private int convertConcurrency;
+	private int storeConcurrency;
+	private int storeBatchSize;
+	private int queueCapacity;
 	
 	public SampleLoader(DC dataController)
 	{
 		this.dataController = dataController;
 		this.loadResult = new SampleLoadResult();
+		this.progressListener = null;
+
+		this.fetchConcurrency = DEFAULT_FETCH_CONCURRENCY;
+		this.convertConcurrency = DEFAULT_CONVERT_CONCURRENCY;
+		this.storeConcurrency = DEFAULT_STORE_CONCURRENCY;
+		this.storeBatchSize = DEFAULT_STORE_BATCH_SIZE;
+		this.queueCapacity = DEFAULT_QUEUE_CAPACITY;
 	}
 	
 	//--------------------------------------------------------------
 	// PUBLIC INTERFACE
 
+	/**
+	 * Loads a single website, synchronously.
+	 */
 	public void load(String url)
+	{
+		FetchedWebsite fetched = fetch(url);
+		if(fetched != null)
+		{
+			SampleWebsite website = convert(fetched);
+			if(website != null)
+			{
+				try
+				{
+					// TODO: throw various exceptions and handle cases correctly
+					if(dataController.store(website.getURL(), website.getCertificateChain()))
+					{
+						accept(1);
+					}
+					else
+					{
+						reject(loadResult.getFailedToSaveURLs(), url);
+					}
+				}
+				catch (DuplicateItemException e)
+				{
+					reject(loadResult.getIgnoredURLs(), url);
+				}
+				catch (Exception e)
+				{
+					Logger.logThrowable("Not supposed to happen: ", e);
+					reject(loadResult.getIgnoredURLs(), url);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Loads all the given websites using the staged pipeline described in the class
+	 * documentation. Returns when all of them have been processed.
+	 *
+	 * @throws InterruptedException if the calling thread is interrupted, in which case
+	 * all stages are stopped as well
+	 */
+	public void loadAll(Iterable<String> urls) throws InterruptedException
+	{
+		final BlockingQueue<FetchedWebsite> fetchedQueue = new ArrayBlockingQueue<FetchedWebsite>(queueCapacity);
+		final BlockingQueue<ConvertedWebsite> convertedQueue = new ArrayBlockingQueue<ConvertedWebsite>(queueCapacity);
+
+		ExecutorService fetchers = Executors.newFixedThreadPool(fetchConcurrency);
+		ExecutorService converters = Executors.newFixedThreadPool(convertConcurrency);
+		ExecutorService storers = Executors.newFixedThreadPool(storeConcurrency);
+		try
+		{
+			// start the consuming stages first
+			for(int i = 0; i < convertConcurrency; i++)
+			{
+				converters.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						convertLoop(fetchedQueue, convertedQueue);
+					}
+				});
+			}
+			for(int i = 0; i < storeConcurrency; i++)
+			{
+				storers.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						storeLoop(convertedQueue);
+					}
+				});
+			}
+
+			// then feed the fetch stage, never having more URLs in flight than there are fetchers
+			final Semaphore inFlight = new Semaphore(fetchConcurrency);
+			for(final String url : urls)
+			{
+				inFlight.acquire();
+				fetchers.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							FetchedWebsite fetched = fetch(url);
+							if(fetched != null)
+							{
+								fetchedQueue.put(fetched);
+							}
+						}
+						catch (InterruptedException e)
+						{
+							Thread.currentThread().interrupt();
+						}
+						catch (RuntimeException e)
+						{
+							// the URL must still end up in the result
+							Logger.logThrowable("Not supposed to happen: ", e);
+							reject(loadResult.getIgnoredURLs(), url);
+						}
+						finally
+						{
+							inFlight.release();
+						}
+					}
+				});
+			}
+
+			// and finally shut down the stages in order, each after all of its input has been processed
+			inFlight.acquire(fetchConcurrency);
+			for(int i = 0; i < convertConcurrency; i++)
+			{
+				fetchedQueue.put(FetchedWebsite.END);
+			}
+			converters.shutdown();
+			converters.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			for(int i = 0; i < storeConcurrency; i++)
+			{
+				convertedQueue.put(ConvertedWebsite.END);
+			}
+			storers.shutdown();
+			storers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+		finally
+		{
+			fetchers.shutdownNow();
+			converters.shutdownNow();
+			storers.shutdownNow();
+		}
+	}
+	
+	public SampleLoadResult getLoadResult()
+	{
+		return loadResult;
+	}
+	
+	public void setProgressListener(IProgressListener progressListener)
+	{
+		this.progressListener = progressListener;
+	}
+
+	public int getFetchConcurrency()
+	{
+		return this.fetchConcurrency;
+	}
+
+	public void setFetchConcurrency(int fetchConcurrency)
+	{
+		this.fetchConcurrency = checkPositive(fetchConcurrency);
+	}
+
+	public int getConvertConcurrency()
+	{
+		return this.convertConcurrency;
+	}
+
+	public void setConvertConcurrency(int convertConcurrency)
+	{
+		this.convertConcurrency = checkPositive(convertConcurrency);
+	}
+
+	public int getStoreConcurrency()
+	{
+		return this.storeConcurrency;
+	}
+
+	public void setStoreConcurrency(int storeConcurrency)
+	{
+		this.storeConcurrency = checkPositive(storeConcurrency);
+	}
+
+	public int getStoreBatchSize()
+	{
+		return this.storeBatchSize;
+	}
+
+	public void setStoreBatchSize(int storeBatchSize)
+	{
+		this.storeBatchSize = checkPositive(storeBatchSize);
+	}
+
+	public int getQueueCapacity()
+	{
+		return this.queueCapacity;
+	}
+
+	public void setQueueCapacity(int queueCapacity)
+	{
+		this.queueCapacity = checkPositive(queueCapacity);
+	}
+
+	//--------------------------------------------------------------
+	// PIPELINE STAGES
+
+	/**
+	 * Opens connection to the given URL and gets its certificate chain.
+	 *
+	 * @return null if the URL was rejected (the reason is recorded in {@link #getLoadResult()})
+	 */
+	private FetchedWebsite fetch(String url)
 	{
 		// open connection to the given URL and check for some basic problems
 		HttpsURLConnection con = null;
 		try
 		{
-			con = (HttpsURLConnection) new URL(url).openConnection();
+			URLConnection plainCon = new URL(url).openConnection();
+			if(!(plainCon instanceof HttpsURLConnection)) // e.g. "http://" - there are no certificates
+			{
+				reject(loadResult.getIgnoredURLs(), url);
+				return null;
+			}
+			con = (HttpsURLConnection) plainCon;
+			con.setConnectTimeout(CONNECT_TIMEOUT);
+			con.setReadTimeout(READ_TIMEOUT);
 			if (con.getResponseCode() != 200)
 			{
-				loadResult.getUrlsWithInvalidResponse().add(url);
-				return;
+				reject(loadResult.getUrlsWithInvalidResponse(), url);
+				return null;
 			}
-			
-			// TODO: check against IP addresses   
+
+			// TODO: check against IP addresses
 		}
 		catch (MalformedURLException e)
 		{
-			loadResult.getMalformedURLs().add(url);
-			return;
+			reject(loadResult.getMalformedURLs(), url);
+			return null;
 		}
 		catch (IOException e)
 		{
 			Logger.logThrowable("Not supposed to happen: ", e);
-			loadResult.getIgnoredURLs().add(url);
-			return;
+			reject(loadResult.getIgnoredURLs(), url);
+			return null;
 		}
 
-		// process the certificate chain
+		// get the certificate chain
 		try
 		{
-			// get it
 			X509Certificate[] certs = (X509Certificate[]) con.getServerCertificates(); // SSL certificates are always x509 certificates
-			
+
 			// take precations
 			if(certs.length == 0)
 			{
-				getLoadResult().getIgnoredURLs().add(url);
+				reject(loadResult.getIgnoredURLs(), url);
+				return null;
 			}
 			else
 			{
-				// convert it
-				List<DefaultCertObject> db_certs = new ArrayList<DefaultCertObject>();
-				for (X509Certificate cert : certs)
+				return new FetchedWebsite(url, con.getURL(), certs);
+			}
+		}
+		catch (Exception e)
+		{
+			Logger.logThrowable("Not supposed to happen: ", e);
+			reject(loadResult.getIgnoredURLs(), url);
+			return null;
+		}
+		finally
+		{
+			con.disconnect();
+		}
+	}
+
+	/**
+	 * @return null if the certificate chain could not be converted (the URL is recorded in
+	 * {@link #getLoadResult()})
+	 */
+	private SampleWebsite convert(FetchedWebsite fetched)
+	{
+		try
+		{
+			List<DefaultCertObject> db_certs = new ArrayList<DefaultCertObject>(fetched.certs.length);
+			for (X509Certificate cert : fetched.certs)
+			{
+				db_certs.add(toDBObject(cert));
+			}
+			return new SampleWebsite(fetched.url, db_certs);
+		}
+		catch (Exception e)
+		{
+			Logger.logThrowable("Not supposed to happen: ", e);
+			reject(loadResult.getIgnoredURLs(), fetched.originalURL);
+			return null;
+		}
+	}
+
+	private void convertLoop(BlockingQueue<FetchedWebsite> from, BlockingQueue<ConvertedWebsite> to)
+	{
+		try
+		{
+			FetchedWebsite fetched;
+			while((fetched = from.take()) != FetchedWebsite.END)
+			{
+				SampleWebsite website = convert(fetched);
+				if(website != null)
 				{
-					db_certs.add(toDBObject(cert));
+					to.put(new ConvertedWebsite(fetched.originalURL, website));
 				}
-				
-				// and store it
-				// TODO: throw various exceptions and handle cases correctly
-				if(!dataController.store(con.getURL(), db_certs))
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Takes whatever is available (up to {@link #getStoreBatchSize()} websites) and stores it
+	 * in one go. Hence, batches get bigger when the database is the bottleneck.
+	 */
+	private void storeLoop(BlockingQueue<ConvertedWebsite> from)
+	{
+		try
+		{
+			List<ConvertedWebsite> batch = new ArrayList<ConvertedWebsite>(storeBatchSize);
+			boolean finished = false;
+			while(!finished)
+			{
+				batch.add(from.take());
+				from.drainTo(batch, storeBatchSize - 1);
+
+				// the end marker may have been drained along with the data
+				int endIndex = batch.indexOf(ConvertedWebsite.END);
+				if(endIndex != -1)
 				{
-					 getLoadResult().getFailedToSaveURLs().add(url);
+					finished = true;
+					List<ConvertedWebsite> afterEnd = new ArrayList<ConvertedWebsite>(batch.subList(endIndex + 1, batch.size()));
+					batch.subList(endIndex, batch.size()).clear();
+					for(ConvertedWebsite website : afterEnd) // belongs to other storers
+					{
+						from.put(website);
+					}
+				}
+
+				if(!batch.isEmpty())
+				{
+					store(batch);
+					batch.clear();
 				}
 			}
 		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void store(List<ConvertedWebsite> batch)
+	{
+		Map<SampleWebsite, String> websiteToURL = new IdentityHashMap<SampleWebsite, String>(batch.size());
+		for(ConvertedWebsite converted : batch)
+		{
+			websiteToURL.put(converted.website, converted.originalURL);
+		}
+
+		BulkStoreResult result;
+		try
+		{
+			result = dataController.storeAll(websiteToURL.keySet());
+		}
 		catch (Exception e)
 		{
 			Logger.logThrowable("Not supposed to happen: ", e);
-			loadResult.getIgnoredURLs().add(url);
+			loadResult.getIgnoredURLs().addAll(websiteToURL.values());
+			fireProgressed();
 			return;
 		}
+		for(SampleWebsite website : result.getDuplicates())
+		{
+			loadResult.getIgnoredURLs().add(websiteToURL.get(website));
+		}
+		for(SampleWebsite website : result.getFailed())
+		{
+			loadResult.getFailedToSaveURLs().add(websiteToURL.get(website));
+		}
+		accept(result.getStored().size());
 	}
-	
-	public SampleLoadResult getLoadResult()
-	{
-		return loadResult;
-	}
-	
+
 	//--------------------------------------------------------------
 	// PRIVATE INTERFACE
+
+	private void accept(int storedCount)
+	{
+		loadResult.addStoredCount(storedCount);
+		fireProgressed();
+	}
+
+	private void reject(List<String> category, String url)
+	{
+		category.add(url);
+		fireProgressed();
+	}
+
+	/**
+	 * A failing listener must not stop the pipeline's threads - the other stages would
+	 * block forever.
+	 */
+	private void fireProgressed()
+	{
+		if(progressListener != null)
+		{
+			try
+			{
+				progressListener.progressed(loadResult);
+			}
+			catch (RuntimeException e)
+			{
+				Logger.logThrowable("Progress listener failed: ", e);
+			}
+		}
+	}
+
+	private static int checkPositive(int value)
+	{
+		if(value < 1)
+		{
+			throw new IllegalArgumentException("Value must be positive.");
+		}
+		return value;
+	}
 	
 	private DefaultCertObject toDBObject(X509Certificate cert) throws IOException
 	{
@@ -154,4 +574,37 @@ public class SampleLoader<DC extends AbstractDataController<?>>
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	//--------------------------------------------------------------
+	// ITEMS PASSED BETWEEN STAGES
+
+	private static class FetchedWebsite
+	{
+		public static final FetchedWebsite END = new FetchedWebsite(null, null, null);
+
+		public final String originalURL;
+		public final URL url;
+		public final X509Certificate[] certs;
+
+		public FetchedWebsite(String originalURL, URL url, X509Certificate[] certs)
+		{
+			this.originalURL = originalURL;
+			this.url = url;
+			this.certs = certs;
+		}
+	}
+
+	private static class ConvertedWebsite
+	{
+		public static final ConvertedWebsite END = new ConvertedWebsite(null, null);
+
+		public final String originalURL;
+		public final SampleWebsite website;
+
+		public ConvertedWebsite(String originalURL, SampleWebsite website)
+		{
+			this.originalURL = originalURL;
+			this.website = website;
+		}
+	}
+}
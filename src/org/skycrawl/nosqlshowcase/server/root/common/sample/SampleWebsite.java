@@ -0,0 +1,49 @@
+package org.skycrawl.nosqlshowcase.server.root.common.sample;
+
+import java.net.URL;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * A website together with its certificate chain, as passed to the data controllers.
+ * The chain is ordered from the website's certificate to the root CA.
+ * 
+ * @author SkyCrawl
+ */
+public class SampleWebsite
+{
+	private final URL url;
+	private final List<DefaultCertObject> certificateChain;
+	
+	public SampleWebsite(URL url, List<DefaultCertObject> certificateChain)
+	{
+		this.url = url;
+		this.certificateChain = certificateChain;
+	}
+
+	public URL getURL()
+	{
+		return this.url;
+	}
+
+	public List<DefaultCertObject> getCertificateChain()
+	{
+		return this.certificateChain;
+	}
+	
+	public String getDomain()
+	{
+		return this.url.getHost();
+	}
+	
+	public String getTLD()
+	{
+		return StringUtils.substringAfterLast(getDomain(), ".");
+	}
+	
+	public DefaultCertObject getRootCA()
+	{
+		return this.certificateChain.get(this.certificateChain.size() - 1);
+	}
+}
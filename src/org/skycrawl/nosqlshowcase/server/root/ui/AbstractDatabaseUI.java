@@ -3,13 +3,18 @@ package org.skycrawl.nosqlshowcase.server.root.ui;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.List;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.lang.StringUtils;
+import org.skycrawl.nosqlshowcase.server.Config;
 import org.skycrawl.nosqlshowcase.server.Logger;
 import org.skycrawl.nosqlshowcase.server.ServletResources;
 import org.skycrawl.nosqlshowcase.server.root.common.db.AbstractDataController;
 import org.skycrawl.nosqlshowcase.server.root.common.db.AbstractDatabaseConnection;
 import org.skycrawl.nosqlshowcase.server.root.common.db.DatabaseHandle;
+import org.skycrawl.nosqlshowcase.server.root.common.sample.SampleLoadResult;
 import org.skycrawl.nosqlshowcase.server.root.common.sample.SampleLoader;
 import org.skycrawl.nosqlshowcase.server.root.ui.dialogs.DialogCommons.IDialogResultHandler;
 import org.skycrawl.nosqlshowcase.server.root.ui.dialogs.GeneralDialogs;
@@ -19,6 +24,7 @@ import org.skycrawl.nosqlshowcase.server.root.ui.util.IMenuContext;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
+import com.google.common.io.CharStreams;
 import com.vaadin.event.MouseEvents.ClickEvent;
 import com.vaadin.event.MouseEvents.ClickListener;
 import com.vaadin.server.ErrorMessage;
@@ -33,6 +39,7 @@ import com.vaadin.ui.MenuBar;
 import com.vaadin.ui.MenuBar.MenuItem;
 import com.vaadin.ui.TabSheet;
 import com.vaadin.ui.TextArea;
+import com.vaadin.ui.UIDetachedException;
 import com.vaadin.ui.VerticalLayout;
 
 import de.steinwedel.messagebox.Icon;
@@ -42,6 +49,11 @@ public abstract class AbstractDatabaseUI<C extends Object, DC extends AbstractDa
 {
 	private static final long	serialVersionUID	= -1397955805512266993L;
 	
+	/**
+	 * Minimum time between two sample data load progress updates pushed to the client, in milliseconds.
+	 */
+	private static final long PROGRESS_PUSH_INTERVAL = 500;
+	
 	private DatabaseHandle<CA> databaseHandle = null;
 	
 	public DatabaseHandle<CA> getDatabaseHandle()
@@ -239,6 +251,10 @@ public abstract class AbstractDatabaseUI<C extends Object, DC extends AbstractDa
 		lbl_client.setSizeUndefined();
 		lbl_client.setCaption("Connected with client:");
 		
+		final Label lbl_pool = new Label(getConnectionHandle().getPoolUtilization().toString());
+		lbl_pool.setSizeUndefined();
+		lbl_pool.setCaption("Connection pool:");
+		
 		FormLayout fLayout_dbInfo = new FormLayout();
 		fLayout_dbInfo.setSizeUndefined();
 		fLayout_dbInfo.setStyleName("bannerArea-dbInfo");
@@ -246,6 +262,7 @@ public abstract class AbstractDatabaseUI<C extends Object, DC extends AbstractDa
 		fLayout_dbInfo.addComponent(lbl_supportedVersion);
 		fLayout_dbInfo.addComponent(lbl_currentVersion);
 		fLayout_dbInfo.addComponent(lbl_client);
+		fLayout_dbInfo.addComponent(lbl_pool);
 		
 		HorizontalLayout hLayout_header = new HorizontalLayout();
 		hLayout_header.setSizeUndefined();
@@ -300,6 +317,7 @@ public abstract class AbstractDatabaseUI<C extends Object, DC extends AbstractDa
 			public void menuSelected(MenuItem selectedItem)
 			{
 				miniApp.refresh(menuContextProvider, getDataController());
+				lbl_pool.setValue(getConnectionHandle().getPoolUtilization().toString());
 			}
 		});
 		actionMenu.addItem("Erase data", new MenuBar.Command()
@@ -376,73 +394,173 @@ public abstract class AbstractDatabaseUI<C extends Object, DC extends AbstractDa
 	
 	private void loadSampleData()
 	{
-		try
+		// first read the URLs...
+		final List<String> urls;
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(ServletResources.getResourceAsStream(ServletResources.SAMPLE_DATA))))
+		{
+			urls = CharStreams.readLines(br);
+		}
+		catch (Exception e)
 		{
-			final SampleLoader<DC> websiteLoader = new SampleLoader<DC>(getDataController()); 
-			try (BufferedReader br = new BufferedReader(new InputStreamReader(ServletResources.getResourceAsStream(ServletResources.SAMPLE_DATA))))
+			Logger.logThrowable("Failed to load sample data: ", e);
+			MyNotifications.showError("Failed to load sample data", e.getLocalizedMessage(), null);
+			return;
+		}
+		
+		// ... and then load them in the background, without holding the session lock
+		final SampleLoader<DC> websiteLoader = new SampleLoader<DC>(getDataController());
+		final SampleLoadProgressForm progressForm = new SampleLoadProgressForm(urls.size());
+		final AtomicReference<MessageBox> progressDialog = new AtomicReference<MessageBox>();
+		
+		// progress is pushed to the client, but not more often than necessary
+		final AtomicLong lastProgressPush = new AtomicLong(0);
+		websiteLoader.setProgressListener(new SampleLoader.IProgressListener()
+		{
+			@Override
+			public void progressed(final SampleLoadResult result)
 			{
-				String url;
-				while ((url = br.readLine()) != null)
+				long now = System.currentTimeMillis();
+				long last = lastProgressPush.get();
+				if((now - last >= PROGRESS_PUSH_INTERVAL) && lastProgressPush.compareAndSet(last, now))
 				{
-					websiteLoader.load(url);
+					accessIfAttached(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							progressForm.update(result);
+						}
+					});
 				}
 			}
-			finally
+		});
+		
+		// created before the dialog so that it can be cancelled even before it starts
+		final FutureTask<Void> loadTask = new FutureTask<Void>(new Runnable()
+		{
+			@Override
+			public void run()
 			{
-				if(websiteLoader.getLoadResult().loadWasACompleteSuccess())
+				try
 				{
-					MyNotifications.showSuccess(null, "Sample data successfully loaded.", null);
+					websiteLoader.loadAll(urls);
+					accessIfAttached(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							progressDialog.get().close();
+							showLoadResult(websiteLoader.getLoadResult());
+						}
+					});
 				}
-				else
+				catch (InterruptedException e)
 				{
-					MyNotifications.showWarning("Sample data load result", "Click to display details...", new ClickListener()
+					accessIfAttached(new Runnable()
 					{
-						private static final long	serialVersionUID	= 8456228417991600455L;
-
 						@Override
-						public void click(ClickEvent event)
+						public void run()
 						{
-							TabSheet report = new TabSheet();
-							report.setSizeFull();
-							if(!websiteLoader.getLoadResult().getMalformedURLs().isEmpty())
-							{
-								report.addTab(getComponentFor(websiteLoader.getLoadResult().getMalformedURLs()), "Malformed URLs");
-							}
-							if(!websiteLoader.getLoadResult().getUrlsWithInvalidResponse().isEmpty())
-							{
-								report.addTab(getComponentFor(websiteLoader.getLoadResult().getUrlsWithInvalidResponse()), "Invalid response URLs");
-							}
-							if(!websiteLoader.getLoadResult().getFailedToSaveURLs().isEmpty())
-							{
-								report.addTab(getComponentFor(websiteLoader.getLoadResult().getFailedToSaveURLs()), "Not saved URLs");
-							}
-							if(!websiteLoader.getLoadResult().getIgnoredURLs().isEmpty())
-							{
-								report.addTab(getComponentFor(websiteLoader.getLoadResult().getIgnoredURLs()), "Ignored URLs");
-							}
-							
-							MessageBox mb = GeneralDialogs.componentDialog("Sample data load report", Icon.WARN, report);
-							mb.setWidth("600px");
-							mb.setHeight("400px");
+							progressDialog.get().close();
+							MyNotifications.showInfo(null, String.format("Sample data load cancelled after %d URLs.", 
+									websiteLoader.getLoadResult().getProcessedCount()), null);
 						}
-						
-						private Component getComponentFor(List<String> urlList)
+					});
+				}
+				catch (final Exception e)
+				{
+					Logger.logThrowable("Failed to load sample data: ", e);
+					accessIfAttached(new Runnable()
+					{
+						@Override
+						public void run()
 						{
-							TextArea result = new TextArea(null, StringUtils.join(urlList.iterator(), '\n'));
-							result.setSizeFull();
-							result.setWordwrap(false);
-							return result;
+							progressDialog.get().close();
+							MyNotifications.showError("Failed to load sample data", e.getLocalizedMessage(), null);
+							MyNotifications.showInfo(null, "Cleaning database...", null);
+							clearDatabase();
 						}
 					});
 				}
 			}
+		}, null);
+		progressDialog.set(GeneralDialogs.cancellableComponentDialog("Loading sample data", Icon.INFO, progressForm, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				loadTask.cancel(true);
+			}
+		}));
+		Config.getBackgroundExecutor().execute(loadTask);
+	}
+	
+	/**
+	 * Like {@link #access(Runnable)} but does nothing if this UI has been detached (e.g. its
+	 * tab closed) in the meantime. Background tasks must not fail because of that.
+	 */
+	private void accessIfAttached(Runnable runnable)
+	{
+		if(isAttached())
+		{
+			try
+			{
+				access(runnable);
+			}
+			catch (UIDetachedException e)
+			{
+				// detached just now
+			}
 		}
-		catch (Exception e)
+	}
+	
+	private void showLoadResult(final SampleLoadResult loadResult)
+	{
+		if(loadResult.loadWasACompleteSuccess())
 		{
-			Logger.logThrowable("Failed to load sample data: ", e);
-			MyNotifications.showError("Failed to load sample data", e.getLocalizedMessage(), null);
-			MyNotifications.showInfo(null, "Cleaning database...", null);
-			clearDatabase();
+			MyNotifications.showSuccess(null, "Sample data successfully loaded.", null);
+		}
+		else
+		{
+			MyNotifications.showWarning("Sample data load result", "Click to display details...", new ClickListener()
+			{
+				private static final long	serialVersionUID	= 8456228417991600455L;
+
+				@Override
+				public void click(ClickEvent event)
+				{
+					TabSheet report = new TabSheet();
+					report.setSizeFull();
+					if(!loadResult.getMalformedURLs().isEmpty())
+					{
+						report.addTab(getComponentFor(loadResult.getMalformedURLs()), "Malformed URLs");
+					}
+					if(!loadResult.getUrlsWithInvalidResponse().isEmpty())
+					{
+						report.addTab(getComponentFor(loadResult.getUrlsWithInvalidResponse()), "Invalid response URLs");
+					}
+					if(!loadResult.getFailedToSaveURLs().isEmpty())
+					{
+						report.addTab(getComponentFor(loadResult.getFailedToSaveURLs()), "Not saved URLs");
+					}
+					if(!loadResult.getIgnoredURLs().isEmpty())
+					{
+						report.addTab(getComponentFor(loadResult.getIgnoredURLs()), "Ignored URLs");
+					}
+					
+					MessageBox mb = GeneralDialogs.componentDialog("Sample data load report", Icon.WARN, report);
+					mb.setWidth("600px");
+					mb.setHeight("400px");
+				}
+				
+				private Component getComponentFor(List<String> urlList)
+				{
+					TextArea result = new TextArea(null, StringUtils.join(urlList.iterator(), '\n'));
+					result.setSizeFull();
+					result.setWordwrap(false);
+					return result;
+				}
+			});
 		}
 	}
 }
\ No newline at end of file
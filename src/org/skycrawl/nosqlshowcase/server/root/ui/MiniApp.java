@@ -5,9 +5,12 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.logging.Level;
 
 import org.skycrawl.nosqlshowcase.server.Logger;
 import org.skycrawl.nosqlshowcase.server.root.common.db.AbstractDataController;
+import org.skycrawl.nosqlshowcase.server.root.common.db.CertificateCache;
+import org.skycrawl.nosqlshowcase.server.root.common.db.DataChangeTracker;
 import org.skycrawl.nosqlshowcase.server.root.common.model.WebsiteToCertDataModel;
 import org.skycrawl.nosqlshowcase.server.root.ui.notifications.MyNotifications;
 import org.skycrawl.nosqlshowcase.server.root.ui.util.IMenuContext;
@@ -24,104 +27,203 @@ import com.vaadin.ui.Panel;
 public class MiniApp<DC extends AbstractDataController<?>> extends Panel
 {
 	private static final long	serialVersionUID	= -8032034876997584440L;
-	
+
 	private static final String TLD_SELECT_MENU_CAPTION = "Show TLD";
-	
+
+	/**
+	 * Diagrams are created lazily, when first displayed. Any change to the data model
+	 * discards all of them because CA sets may be shared by several TLDs.
+	 */
 	private final Map<String, VennDiagram> tldToComponent;
-	
+	private final Map<String, MenuItem> tldToMenuItem;
+	private final MenuBar.Command tldSelectCommand;
+
 	private WebsiteToCertDataModel dataModel;
 	private MenuItem currentlySelectedMenuItem;
-	
+
+	/*
+	 * Changes made through the data controller since the last refresh.
+	 */
+	private DataChangeTracker changeTracker;
+	private DC trackedDataController;
+
 	public MiniApp()
 	{
 		super();
-		
+
 		this.tldToComponent = new HashMap<String,VennDiagram>();
+		this.tldToMenuItem = new HashMap<String,MenuItem>();
+		this.tldSelectCommand = new MenuBar.Command()
+		{
+			private static final long	serialVersionUID	= 5011954463489350360L;
+
+			@Override
+			public void menuSelected(MenuItem selectedItem)
+			{
+				currentlySelectedMenuItem.setChecked(false); // should not spawn command event...
+				if(selectedItem.isChecked()) // protection against the above line triggering another event like this
+				{
+					currentlySelectedMenuItem = selectedItem;
+					displayContentForCurrentlySelectedMenuItem();
+				}
+			}
+		};
 		this.dataModel = new WebsiteToCertDataModel();
 		this.currentlySelectedMenuItem = null;
+		this.changeTracker = null;
+		this.trackedDataController = null;
+	}
+
+	@Override
+	public void detach()
+	{
+		stopTracking();
+		super.detach();
 	}
 
 	public void refresh(IMenuContext context, DC dataController)
 	{
-		/*
-		 * First, discard any previous cached data.
-		 */
-		
 		MenuItem tldSelectMenuItem = context.getMenuItemOrCreateNew(TLD_SELECT_MENU_CAPTION);
-		clearCache(tldSelectMenuItem);
+		if(trackedDataController != dataController)
+		{
+			stopTracking();
+			changeTracker = new DataChangeTracker(); // needs rebuild by default
+			trackedDataController = dataController;
+			trackedDataController.addChangeListener(changeTracker);
+		}
 
 		/*
-		 * Compute the data model and convert it to a series of components categorized by TLD.
+		 * Bring the data model up to date - incrementally, if possible.
 		 */
-		
-		Set<String> tlds = null;
+
 		try
 		{
-			tlds = dataController.getTLDs();
-			this.dataModel = dataController.getSetDomainAndIntersections(tlds);
-			tlds = new CustomOrderSet<String>(tlds); // sort TLDs
-			for(String tld : tlds)
+			if(changeTracker.needsRebuild())
 			{
-				List<VennSet> sets = new ArrayList<VennSet>();
-				List<VennOverlap> overlaps = new ArrayList<VennOverlap>();
-				dataModel.fillDataForTLD(tld, sets, overlaps);
-				
-				VennDiagram diagram = new VennDiagram(sets, overlaps); // sets list is not empty - at least TLD set must have been exported
-				diagram.setSizeFull();
-				tldToComponent.put(tld, diagram);
-				
-				MenuItem item = tldSelectMenuItem.addItem(tld, new MenuBar.Command()
+				rebuild(tldSelectMenuItem, dataController);
+			}
+			else
+			{
+				Set<String> changedTLDs = changeTracker.applyTo(dataModel);
+				tldToComponent.clear();
+				for(String tld : new CustomOrderSet<String>(changedTLDs))
 				{
-					private static final long	serialVersionUID	= 5011954463489350360L;
-
-					@Override
-					public void menuSelected(MenuItem selectedItem)
-					{
-						currentlySelectedMenuItem.setChecked(false); // should not spawn command event...
-						if(selectedItem.isChecked()) // protection against the above line triggering another event like this
-						{
-							currentlySelectedMenuItem = selectedItem;
-							displayContentForCurrentlySelectedMenuItem();
-						}
-					}
-				});
-				item.setCheckable(true);
+					addMenuItem(tldSelectMenuItem, tld);
+				}
 			}
 		}
 		catch (Exception e)
 		{
+			changeTracker.invalidate();
 			Logger.logThrowable("Could not create mini-app: ", e);
 			MyNotifications.showError("Mini app could not be launched", e.getLocalizedMessage(), null);
 			return;
 		}
-		
+
 		/*
-		 * Check the first menu item and display content for it.
+		 * Check the first menu item (unless one is already checked) and display content for it.
 		 */
-		
+
 		if((tldSelectMenuItem.getChildren() == null) || tldSelectMenuItem.getChildren().isEmpty())
 		{
 			tldSelectMenuItem.setEnabled(false);
+			currentlySelectedMenuItem = null;
 			setContent(new Label("No applicable data was found in the database."));
 		}
 		else
 		{
 			tldSelectMenuItem.setEnabled(true);
-			currentlySelectedMenuItem = tldSelectMenuItem.getChildren().get(0);
-			currentlySelectedMenuItem.setChecked(true); // should not spawn command event...
+			if(currentlySelectedMenuItem == null)
+			{
+				currentlySelectedMenuItem = tldSelectMenuItem.getChildren().get(0);
+				currentlySelectedMenuItem.setChecked(true); // should not spawn command event...
+			}
 			displayContentForCurrentlySelectedMenuItem();
 		}
 	}
-	
+
+	private void rebuild(MenuItem tldSelectMenuItem, DC dataController) throws Exception
+	{
+		/*
+		 * First, discard any previous cached data.
+		 */
+
+		clearCache(tldSelectMenuItem);
+
+		/*
+		 * Compute the data model and create a menu item for each TLD.
+		 */
+
+		changeTracker.rebuildStarted();
+		Set<String> tlds = dataController.getTLDs();
+		this.dataModel = dataController.getSetDomainAndIntersections(tlds);
+		changeTracker.rebuildFinished();
+		for(String tld : new CustomOrderSet<String>(tlds)) // sort TLDs
+		{
+			addMenuItem(tldSelectMenuItem, tld);
+		}
+		Logger.log(Level.INFO, "Mini-app rebuilt, " + CertificateCache.getShared().getStats());
+	}
+
+	/**
+	 * Adds a menu item for the given TLD, unless it already exists. Items are kept sorted.
+	 */
+	private void addMenuItem(MenuItem tldSelectMenuItem, String tld)
+	{
+		if(!tldToMenuItem.containsKey(tld))
+		{
+			MenuItem nextItem = null;
+			if(tldSelectMenuItem.getChildren() != null)
+			{
+				for(MenuItem item : tldSelectMenuItem.getChildren())
+				{
+					if(item.getText().compareTo(tld) > 0)
+					{
+						nextItem = item;
+						break;
+					}
+				}
+			}
+
+			MenuItem item = nextItem == null ? tldSelectMenuItem.addItem(tld, tldSelectCommand) :
+				tldSelectMenuItem.addItemBefore(tld, null, tldSelectCommand, nextItem);
+			item.setCheckable(true);
+			tldToMenuItem.put(tld, item);
+		}
+	}
+
 	private void displayContentForCurrentlySelectedMenuItem()
 	{
-		setContent(tldToComponent.get(currentlySelectedMenuItem.getText()));
+		String tld = currentlySelectedMenuItem.getText();
+		VennDiagram diagram = tldToComponent.get(tld);
+		if(diagram == null)
+		{
+			List<VennSet> sets = new ArrayList<VennSet>();
+			List<VennOverlap> overlaps = new ArrayList<VennOverlap>();
+			dataModel.fillDataForTLD(tld, sets, overlaps);
+
+			diagram = new VennDiagram(sets, overlaps); // sets list is not empty - at least TLD set must have been exported
+			diagram.setSizeFull();
+			tldToComponent.put(tld, diagram);
+		}
+		setContent(diagram);
 	}
-	
+
 	private void clearCache(MenuItem tldSelectMenuItem)
 	{
 		dataModel.clear();
 		tldToComponent.clear();
+		tldToMenuItem.clear();
 		tldSelectMenuItem.removeChildren();
+		currentlySelectedMenuItem = null;
+	}
+
+	private void stopTracking()
+	{
+		if(trackedDataController != null)
+		{
+			trackedDataController.removeChangeListener(changeTracker);
+			trackedDataController = null;
+		}
 	}
-}
\ No newline at end of file
+}
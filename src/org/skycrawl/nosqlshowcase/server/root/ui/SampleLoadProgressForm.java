@@ -0,0 +1,77 @@
+package org.skycrawl.nosqlshowcase.server.root.ui;
+
+import org.skycrawl.nosqlshowcase.server.root.common.sample.SampleLoadResult;
+
+import com.vaadin.ui.FormLayout;
+import com.vaadin.ui.Label;
+import com.vaadin.ui.ProgressBar;
+
+/**
+ * Displays the progress of a sample data load, as reported by {@link SampleLoadResult}.
+ * Only to be updated while holding the session lock, e.g. from {@link com.vaadin.ui.UI#access(Runnable)}.
+ */
+public class SampleLoadProgressForm extends FormLayout
+{
+	private static final long	serialVersionUID	= -3518934263472167190L;
+	
+	private final int totalCount;
+	private final long startedAt;
+	
+	private final ProgressBar pb_progress;
+	private final Label lbl_processed;
+	private final Label lbl_throughput;
+	private final Label lbl_stored;
+	private final Label lbl_malformed;
+	private final Label lbl_invalidResponse;
+	private final Label lbl_notSaved;
+	private final Label lbl_ignored;
+	
+	public SampleLoadProgressForm(int totalCount)
+	{
+		super();
+		setWidth("400px");
+		setMargin(true);
+		setSpacing(false);
+		
+		this.totalCount = totalCount;
+		this.startedAt = System.currentTimeMillis();
+		
+		pb_progress = new ProgressBar(0f);
+		pb_progress.setWidth("100%");
+		pb_progress.setCaption("Progress:");
+		
+		lbl_processed = createLabel("Processed URLs:");
+		lbl_throughput = createLabel("Throughput:");
+		lbl_stored = createLabel("Stored:");
+		lbl_malformed = createLabel("Malformed URLs:");
+		lbl_invalidResponse = createLabel("Invalid response URLs:");
+		lbl_notSaved = createLabel("Not saved URLs:");
+		lbl_ignored = createLabel("Ignored URLs:");
+		
+		addComponents(pb_progress, lbl_processed, lbl_throughput, lbl_stored, lbl_malformed, lbl_invalidResponse, lbl_notSaved, lbl_ignored);
+		update(new SampleLoadResult());
+	}
+	
+	public void update(SampleLoadResult result)
+	{
+		int processedCount = result.getProcessedCount();
+		double elapsedSeconds = Math.max(System.currentTimeMillis() - startedAt, 1) / 1000d;
+		
+		pb_progress.setValue(totalCount == 0 ? 1f : (float) processedCount / totalCount);
+		lbl_processed.setValue(String.format("%d / %d", processedCount, totalCount));
+		lbl_throughput.setValue(String.format("%.1f URLs/s", processedCount / elapsedSeconds));
+		lbl_stored.setValue(String.valueOf(result.getStoredCount()));
+		lbl_malformed.setValue(String.valueOf(result.getMalformedURLs().size()));
+		lbl_invalidResponse.setValue(String.valueOf(result.getUrlsWithInvalidResponse().size()));
+		lbl_notSaved.setValue(String.valueOf(result.getFailedToSaveURLs().size()));
+		lbl_ignored.setValue(String.valueOf(result.getIgnoredURLs().size()));
+	}
+	
+	private static Label createLabel(String caption)
+	{
+		Label result = new Label();
+		result.setSizeUndefined();
+		result.setCaption(caption);
+		return result;
+	}
+}
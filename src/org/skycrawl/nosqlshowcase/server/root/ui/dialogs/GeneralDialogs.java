@@ -137,6 +137,45 @@ public class GeneralDialogs extends DialogCommons
 		return mb;
 	}
 
+	/**
+	 * A custom component, wrapped in a dialog that only closes with its "cancel" button
+	 * (which also runs the given action) or programmatically.
+	 */
+	public static MessageBox cancellableComponentDialog(String title, Icon icon, Component content, final Runnable cancelAction)
+	{
+		MyMessageBoxListener listener = new MyMessageBoxListener(null)
+		{
+			@Override
+			protected boolean allowOKHandle()
+			{
+				return false;
+			}
+
+			@Override
+			protected void addArgs(List<Object> arguments)
+			{
+			}
+			
+			@Override
+			protected void handleClose()
+			{
+				cancelAction.run();
+				super.handleClose();
+			}
+		};
+		MessageBox mb = MessageBox.showCustomized(
+				icon,
+				title != null ? title : "",
+				content,
+				listener,
+				ButtonId.CANCEL
+		);
+		listener.setParentBox(mb); // don't forget this!
+		setupGeneralDialog(mb, false, false);
+		mb.getWindow().setClosable(false);
+		return mb;
+	}
+
 	/**
 	 * A custom component, wrapped in a prompt.
 	 */
@@ -0,0 +1,199 @@
+package org.skycrawl.nosqlshowcase.server.root.util;
+
+import java.util.Arrays;
+
+/**
+ * A minimal hash map from primitive longs to primitive ints. Uses open addressing
+ * with linear probing so that neither lookups nor updates of existing keys allocate
+ * anything. Keys can not be removed individually (only {@link #clear()} is supported),
+ * which keeps the probing logic trivially correct. Not thread-safe.
+ *
+ * @author SkyCrawl
+ */
+public class LongIntHashMap
+{
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/**
+	 * Table is at most 1/2 full, so probe sequences stay short and an empty slot
+	 * is always found. Only a table of {@link #MAXIMUM_CAPACITY} may fill up further
+	 * (but never completely).
+	 */
+	private static final int MAX_LOAD_DIVISOR = 2;
+
+	/**
+	 * Largest power of two an array can be indexed by.
+	 */
+	private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+	private long[] keys;
+	private int[] values;
+	private boolean[] used;
+	private int size;
+
+	public LongIntHashMap()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize number of keys the map should hold without resizing
+	 */
+	public LongIntHashMap(int expectedSize)
+	{
+		if(expectedSize < 0)
+		{
+			throw new IllegalArgumentException("Expected size can not be negative.");
+		}
+		allocate(tableSizeFor(expectedSize));
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	public boolean containsKey(long key)
+	{
+		return used[indexOf(key)];
+	}
+
+	/**
+	 * @return the value mapped to the given key or 0 if there is none
+	 */
+	public int get(long key)
+	{
+		int index = indexOf(key);
+		return used[index] ? values[index] : 0;
+	}
+
+	public void put(long key, int value)
+	{
+		int index = indexOf(key);
+		if(!used[index])
+		{
+			index = insert(index, key);
+		}
+		values[index] = value;
+	}
+
+	/**
+	 * Adds the given delta to the value mapped to the given key. Missing keys are
+	 * treated as if mapped to 0.
+	 *
+	 * @return the new value
+	 */
+	public int addTo(long key, int delta)
+	{
+		int index = indexOf(key);
+		if(!used[index])
+		{
+			index = insert(index, key);
+		}
+		values[index] += delta;
+		return values[index];
+	}
+
+	public void clear()
+	{
+		Arrays.fill(used, false);
+		Arrays.fill(values, 0);
+		size = 0;
+	}
+
+	//---------------------------------------------------------------------
+	// PRIVATE INTERFACE
+
+	/**
+	 * @return the slot holding the given key or the empty slot where it would be inserted
+	 */
+	private int indexOf(long key)
+	{
+		int mask = keys.length - 1;
+		int index = mix(key) & mask;
+		while(used[index] && (keys[index] != key))
+		{
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	/**
+	 * Inserts the key into the given empty slot, resizing the table if necessary.
+	 *
+	 * @return the slot now holding the key (value is 0)
+	 */
+	private int insert(int index, long key)
+	{
+		if((size + 1) * MAX_LOAD_DIVISOR > keys.length)
+		{
+			if(keys.length < MAXIMUM_CAPACITY)
+			{
+				rehash(keys.length * 2);
+				index = indexOf(key);
+			}
+			else if(size + 1 == keys.length)
+			{
+				throw new IllegalStateException("Map is full.");
+			}
+		}
+		used[index] = true;
+		keys[index] = key;
+		values[index] = 0;
+		size++;
+		return index;
+	}
+
+	private void rehash(int newCapacity)
+	{
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		boolean[] oldUsed = used;
+		allocate(newCapacity);
+		for(int i = 0; i < oldKeys.length; i++)
+		{
+			if(oldUsed[i])
+			{
+				int index = indexOf(oldKeys[i]);
+				used[index] = true;
+				keys[index] = oldKeys[i];
+				values[index] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity)
+	{
+		keys = new long[capacity];
+		values = new int[capacity];
+		used = new boolean[capacity];
+	}
+
+	private static int tableSizeFor(int expectedSize)
+	{
+		int result = DEFAULT_CAPACITY;
+		while((result < MAXIMUM_CAPACITY) && (result < (long) expectedSize * MAX_LOAD_DIVISOR))
+		{
+			result <<= 1;
+		}
+		return result;
+	}
+
+	/**
+	 * Finalization step of MurmurHash3, spreads both halves of the key over all bits.
+	 */
+	private static int mix(long key)
+	{
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+}
@@ -0,0 +1,173 @@
+package org.skycrawl.nosqlshowcase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.skycrawl.nosqlshowcase.server.root.common.model.CertFingerprint;
+import org.skycrawl.nosqlshowcase.server.root.common.model.WebsiteToCertDataModel;
+import org.skycrawl.nosqlshowcase.server.root.common.sample.DefaultCertObject;
+import org.skycrawl.nosqlshowcase.server.root.ui.venndiagram.VennOverlap;
+import org.skycrawl.nosqlshowcase.server.root.ui.venndiagram.VennSet;
+import org.skycrawl.nosqlshowcase.server.root.util.LongIntHashMap;
+
+public class DataModelTest extends TestCase
+{
+	public void testLongIntHashMap()
+	{
+		LongIntHashMap map = new LongIntHashMap();
+		Map<Long, Integer> reference = new HashMap<Long, Integer>();
+		Random random = new Random(42);
+		for(int i = 0; i < 100000; i++)
+		{
+			// small key space so that keys repeat, extreme values to test hashing
+			long key;
+			switch(random.nextInt(4))
+			{
+				case 0:
+					key = random.nextInt(1000);
+					break;
+				case 1:
+					key = -random.nextInt(1000);
+					break;
+				case 2:
+					key = ((long) random.nextInt(100) << 32) | random.nextInt(100);
+					break;
+				default:
+					key = Long.MAX_VALUE - random.nextInt(1000);
+					break;
+			}
+			int delta = random.nextInt(10) - 3;
+
+			Integer expected = reference.get(key);
+			expected = (expected == null ? 0 : expected) + delta;
+			reference.put(key, expected);
+			assertEquals(expected.intValue(), map.addTo(key, delta));
+		}
+
+		assertEquals(reference.size(), map.size());
+		for(Entry<Long, Integer> entry : reference.entrySet())
+		{
+			assertTrue(map.containsKey(entry.getKey()));
+			assertEquals(entry.getValue().intValue(), map.get(entry.getKey()));
+		}
+		assertFalse(map.containsKey(Long.MIN_VALUE));
+		assertEquals(0, map.get(Long.MIN_VALUE));
+
+		map.put(Long.MIN_VALUE, 7);
+		assertEquals(7, map.get(Long.MIN_VALUE));
+
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertFalse(map.containsKey(0L));
+	}
+
+	public void testCertFingerprint()
+	{
+		DefaultCertObject cert = newCert("CA");
+		assertTrue(CertFingerprint.isFingerprint(cert.getFingerprint()));
+		assertFalse(CertFingerprint.isFingerprint(String.valueOf(cert.hashCode())));
+
+		// nulls and empty strings are the same thing
+		DefaultCertObject other = newCert("CA");
+		other.setCommonName("");
+		assertEquals(cert.getFingerprint(), other.getFingerprint());
+
+		// values can not shift between fields
+		other.setCommonName("C");
+		other.setOrganizationName("A");
+		assertFalse(cert.getFingerprint().equals(other.getFingerprint()));
+
+		// cached value is discarded on change
+		String fingerprint = cert.getFingerprint();
+		cert.setVersion(1);
+		assertFalse(fingerprint.equals(cert.getFingerprint()));
+	}
+
+	public void testCertChainFingerprint()
+	{
+		List<DefaultCertObject> chain = Arrays.asList(newCert("Leaf"), newCert("CA"));
+		String fingerprint = CertFingerprint.ofChain(chain);
+		assertTrue(CertFingerprint.isFingerprint(fingerprint));
+		assertEquals(fingerprint, CertFingerprint.ofChain(Arrays.asList(newCert("Leaf"), newCert("CA"))));
+		assertFalse(fingerprint.equals(CertFingerprint.ofChain(Arrays.asList(newCert("CA"), newCert("Leaf")))));
+		assertFalse(fingerprint.equals(CertFingerprint.ofChain(Arrays.asList(newCert("CA")))));
+	}
+
+	public void testOverlapCounts()
+	{
+		DefaultCertObject ca1 = newCert("CA 1");
+		DefaultCertObject ca2 = newCert("CA 2");
+
+		WebsiteToCertDataModel model = new WebsiteToCertDataModel();
+		model.registerWebsite("com", ca1);
+		model.registerWebsite("com", ca1);
+		model.registerWebsite("com", ca2);
+		model.registerWebsite("org", ca2);
+		model.registerWebsite("org", newCert("CA 2")); // equal certificate, different instance
+		model.registerSet("net");
+
+		Map<String, Integer> com = fillOverlaps(model, "com", 3);
+		assertEquals(2, com.size());
+		assertEquals(2, com.get("CA 1").intValue());
+		assertEquals(1, com.get("CA 2").intValue());
+
+		Map<String, Integer> org = fillOverlaps(model, "org", 2);
+		assertEquals(1, org.size());
+		assertEquals(2, org.get("CA 2").intValue());
+
+		assertTrue(fillOverlaps(model, "net", 0).isEmpty());
+
+		// several websites at once
+		model.registerOverlap("net", ca1, 5);
+		model.registerOverlap("net", ca1);
+		assertEquals(6, fillOverlaps(model, "net", 6).get("CA 1").intValue());
+		assertEquals(2, fillOverlaps(model, "com", 3).get("CA 1").intValue());
+
+		model.clear();
+		try
+		{
+			fillOverlaps(model, "com", 0);
+			fail("Cleared model should not know any TLD.");
+		}
+		catch (IllegalStateException e)
+		{
+		}
+	}
+
+	private static DefaultCertObject newCert(String organizationName)
+	{
+		DefaultCertObject result = new DefaultCertObject();
+		result.setVersion(3);
+		result.setOrganizationName(organizationName);
+		return result;
+	}
+
+	/**
+	 * @return CA set labels mapped to overlap sizes
+	 */
+	private static Map<String, Integer> fillOverlaps(WebsiteToCertDataModel model, String tld, int expectedTLDSize)
+	{
+		List<VennSet> sets = new ArrayList<VennSet>();
+		List<VennOverlap> overlaps = new ArrayList<VennOverlap>();
+		model.fillDataForTLD(tld, sets, overlaps);
+
+		assertEquals(tld.toUpperCase(), sets.get(0).getLabel());
+		assertEquals(expectedTLDSize, sets.get(0).getSize());
+		assertEquals(sets.size() - 1, overlaps.size());
+
+		Map<String, Integer> result = new HashMap<String, Integer>();
+		for(VennOverlap overlap : overlaps)
+		{
+			assertEquals(0, overlap.getSets()[0]);
+			result.put(sets.get(overlap.getSets()[1]).getLabel(), overlap.getSize());
+		}
+		return result;
+	}
+}
@@ -0,0 +1,228 @@
+package org.skycrawl.nosqlshowcase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+import junit.framework.TestCase;
+
+import org.skycrawl.nosqlshowcase.server.root.common.db.AbstractDataController;
+import org.skycrawl.nosqlshowcase.server.root.common.exceptions.DuplicateItemException;
+import org.skycrawl.nosqlshowcase.server.root.common.model.WebsiteToCertDataModel;
+import org.skycrawl.nosqlshowcase.server.root.common.sample.DefaultCertObject;
+import org.skycrawl.nosqlshowcase.server.root.common.sample.SampleLoadResult;
+import org.skycrawl.nosqlshowcase.server.root.common.sample.SampleLoader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+/**
+ * Loads websites from a local stand-in HTTPS server with a self-signed certificate,
+ * generated by "keytool" for each test.
+ */
+public class SampleLoaderTest extends TestCase
+{
+	private static final String PASSWORD = "changeit";
+	private static final String CA_ORGANIZATION = "Sample Loader Test";
+
+	private File keyStoreFile;
+	private HttpsServer server;
+	private SSLSocketFactory originalSocketFactory;
+	private RecordingDataController dataController;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		keyStoreFile = File.createTempFile("sampleloadertest", ".jks");
+		keyStoreFile.delete(); // keytool refuses to write into an empty file
+		Process keytool = new ProcessBuilder(
+				new File(new File(System.getProperty("java.home"), "bin"), "keytool").getPath(),
+				"-genkeypair", "-alias", "server", "-keyalg", "RSA", "-keysize", "2048", "-validity", "1",
+				"-dname", "CN=localhost, O=" + CA_ORGANIZATION, "-ext", "SAN=dns:localhost",
+				"-keystore", keyStoreFile.getPath(), "-storepass", PASSWORD, "-keypass", PASSWORD)
+				.redirectErrorStream(true)
+				.start();
+		assertEquals(0, keytool.waitFor());
+
+		KeyStore keyStore = KeyStore.getInstance("JKS");
+		try (InputStream in = new FileInputStream(keyStoreFile))
+		{
+			keyStore.load(in, PASSWORD.toCharArray());
+		}
+
+		// the server presents the certificate...
+		KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagers.init(keyStore, PASSWORD.toCharArray());
+		SSLContext serverContext = SSLContext.getInstance("TLS");
+		serverContext.init(keyManagers.getKeyManagers(), null, null);
+		server = HttpsServer.create(new InetSocketAddress(InetAddress.getByName("localhost"), 0), 0);
+		server.setHttpsConfigurator(new HttpsConfigurator(serverContext));
+		server.createContext("/", new HttpHandler()
+		{
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				int status = exchange.getRequestURI().getPath().equals("/missing") ? 404 : 200;
+				byte[] body = "ok".getBytes("UTF-8");
+				exchange.sendResponseHeaders(status, body.length);
+				try (OutputStream out = exchange.getResponseBody())
+				{
+					out.write(body);
+				}
+			}
+		});
+		server.start();
+
+		// ... and the loader trusts it
+		TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trustManagers.init(keyStore);
+		SSLContext clientContext = SSLContext.getInstance("TLS");
+		clientContext.init(null, trustManagers.getTrustManagers(), null);
+		originalSocketFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+		HttpsURLConnection.setDefaultSSLSocketFactory(clientContext.getSocketFactory());
+
+		dataController = new RecordingDataController();
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		HttpsURLConnection.setDefaultSSLSocketFactory(originalSocketFactory);
+		server.stop(0);
+		keyStoreFile.delete();
+	}
+
+	public void testLoadsCertificateChain()
+	{
+		SampleLoader<RecordingDataController> loader = new SampleLoader<RecordingDataController>(dataController);
+		loader.load(getURL("https", "/"));
+
+		assertEquals(1, loader.getLoadResult().getStoredCount());
+		assertTrue(loader.getLoadResult().loadWasACompleteSuccess());
+		assertEquals(1, dataController.rootCAs.size());
+		DefaultCertObject rootCA = dataController.rootCAs.get(0);
+		assertEquals(CA_ORGANIZATION, rootCA.getOrganizationName());
+		assertEquals("localhost", rootCA.getCommonName());
+		assertEquals("RSA", rootCA.getPubKeyAlg());
+	}
+
+	public void testRejectsPlainHttp()
+	{
+		SampleLoader<RecordingDataController> loader = new SampleLoader<RecordingDataController>(dataController);
+		String url = getURL("http", "/");
+		loader.load(url);
+
+		assertEquals(Collections.singletonList(url), loader.getLoadResult().getIgnoredURLs());
+		assertEquals(0, loader.getLoadResult().getStoredCount());
+	}
+
+	public void testRejectsInvalidResponse()
+	{
+		SampleLoader<RecordingDataController> loader = new SampleLoader<RecordingDataController>(dataController);
+		String url = getURL("https", "/missing");
+		loader.load(url);
+
+		assertEquals(Collections.singletonList(url), loader.getLoadResult().getUrlsWithInvalidResponse());
+		assertEquals(0, loader.getLoadResult().getStoredCount());
+	}
+
+	/**
+	 * Every URL must end up in exactly one category of the result.
+	 */
+	public void testLoadAllCategorizesEveryURL() throws Exception
+	{
+		SampleLoader<RecordingDataController> loader = new SampleLoader<RecordingDataController>(dataController);
+		loader.setFetchConcurrency(4);
+		loader.setStoreBatchSize(2);
+		List<String> valid = Arrays.asList(getURL("https", "/a"), getURL("https", "/b"), getURL("https", "/c"));
+		String plainHttp = getURL("http", "/");
+		String missing = getURL("https", "/missing");
+		String malformed = "no protocol";
+		List<String> urls = new ArrayList<String>(valid);
+		urls.addAll(Arrays.asList(plainHttp, missing, malformed));
+		loader.loadAll(urls);
+
+		SampleLoadResult result = loader.getLoadResult();
+		assertEquals(urls.size(), result.getProcessedCount());
+		assertEquals(1, result.getStoredCount()); // all valid URLs share the domain...
+		assertEquals(3, result.getIgnoredURLs().size()); // ... so the others are duplicates
+		assertTrue(result.getIgnoredURLs().contains(plainHttp));
+		assertEquals(Collections.singletonList(missing), result.getUrlsWithInvalidResponse());
+		assertEquals(Collections.singletonList(malformed), result.getMalformedURLs());
+		assertTrue(result.getFailedToSaveURLs().isEmpty());
+	}
+
+	private String getURL(String protocol, String path)
+	{
+		return protocol + "://localhost:" + server.getAddress().getPort() + path;
+	}
+
+	/**
+	 * Remembers root CAs of the stored websites, rejects repeated domains.
+	 */
+	private static class RecordingDataController extends AbstractDataController<Object>
+	{
+		private final Set<String> domains = Collections.synchronizedSet(new HashSet<String>());
+		private final List<DefaultCertObject> rootCAs = Collections.synchronizedList(new ArrayList<DefaultCertObject>());
+
+		public RecordingDataController()
+		{
+			super(null);
+		}
+
+		@Override
+		public void init()
+		{
+		}
+
+		@Override
+		public Set<String> getTLDs()
+		{
+			return Collections.emptySet();
+		}
+
+		@Override
+		public WebsiteToCertDataModel getSetDomainAndIntersections(Set<String> tlds)
+		{
+			return new WebsiteToCertDataModel();
+		}
+
+		@Override
+		protected boolean doStore(URL website, List<DefaultCertObject> certificateChain) throws DuplicateItemException
+		{
+			if(!domains.add(website.getHost()))
+			{
+				throw new DuplicateItemException();
+			}
+			rootCAs.add(certificateChain.get(certificateChain.size() - 1));
+			return true;
+		}
+
+		@Override
+		protected void doClearDatabase()
+		{
+			domains.clear();
+			rootCAs.clear();
+		}
+	}
+}